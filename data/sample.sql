@@ -51,6 +51,7 @@ create table einsatzmittel
     EXTERNAL_ID            varchar(100)                         null comment 'Kennung des Einsatzmittels in Fremdsystemen zur Nutzung von Leitstellen-Schnittstellen (z.B. KEZ-Schnittstelle, WDX3-Schnittstelle)'
 )
     comment 'Tabelle der Einsatzmittel';
+CREATE INDEX idx_einsatzmittel_zeitstempel ON einsatzmittel(ZEITSTEMPEL);
 
 
 CREATE TABLE IF NOT EXISTS webhook_outbox (
@@ -60,14 +61,17 @@ CREATE TABLE IF NOT EXISTS webhook_outbox (
                                 pk VARCHAR(255) NOT NULL,
                                 payload JSON NOT NULL,
                                 created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
-                                status ENUM('NEW','SENDING','SENT','FAILED') NOT NULL DEFAULT 'NEW',
+                                status ENUM('NEW','SENDING','SENT','FAILED','SUPERSEDED','SPOOLED') NOT NULL DEFAULT 'NEW',
                                 attempts INT NOT NULL DEFAULT 0,
                                 next_retry_at TIMESTAMP NULL DEFAULT NULL,
                                 last_error TEXT NULL,
                                 sent_at TIMESTAMP NULL DEFAULT NULL,
-                                correlation_id CHAR(36) NULL
+                                correlation_id CHAR(36) NULL,
+                                claimed_by VARCHAR(64) NULL,
+                                lease_until TIMESTAMP NULL DEFAULT NULL
 );
 CREATE INDEX idx_outbox_status_retry ON webhook_outbox(status, next_retry_at, id);
+CREATE INDEX idx_outbox_pk ON webhook_outbox(pk, id);
 
 
 CREATE TRIGGER einsatzmittel_webhook_au AFTER UPDATE ON einsatzmittel
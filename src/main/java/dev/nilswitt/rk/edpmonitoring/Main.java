@@ -1,19 +1,25 @@
 package dev.nilswitt.rk.edpmonitoring;
 
 import dev.nilswitt.rk.edpmonitoring.connectors.ApiConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.BinlogConnector;
 import dev.nilswitt.rk.edpmonitoring.connectors.ConfigConnector;
 import dev.nilswitt.rk.edpmonitoring.connectors.MDnsConnector;
 import dev.nilswitt.rk.edpmonitoring.connectors.MariaDBConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.OutboxSpool;
+import dev.nilswitt.rk.edpmonitoring.connectors.UnitSnapshot;
 import dev.nilswitt.rk.edpmonitoring.enitites.Unit;
 import dev.nilswitt.rk.edpmonitoring.services.BackUpService;
 import dev.nilswitt.rk.edpmonitoring.services.HealthService;
+import dev.nilswitt.rk.edpmonitoring.services.OutboxRetentionService;
+import dev.nilswitt.rk.edpmonitoring.services.UnitReconciler;
 import dev.nilswitt.rk.edpmonitoring.threads.OutBoxWatcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -21,6 +27,10 @@ import java.util.concurrent.TimeUnit;
 public class Main {
     private static final Logger LOGGER = LogManager.getLogger(Main.class);
     private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    // kept across startup retries, so failed attempts do not leave HTTP clients behind
+    private ApiConnector apiConnector;
+    private int fullRefreshEvery;
+    private int refreshesSinceFull = 0;
 
     public static void main(String[] args) throws IOException {
         LOGGER.info("Working Directory: {}", Utilities.getCurrentWorkingDirectory());
@@ -48,11 +58,17 @@ public class Main {
         initApiLiveConnection();
     }
 
+    /**
+     * Connect to the API and load the unit catalogue, retrying every 60 seconds until it succeeds. The
+     * outbox is only started afterwards, and only once.
+     */
     private void initApiLiveConnection() {
+        ConfigConnector configConnector = ConfigConnector.getInstance();
         try {
-            ConfigConnector configConnector = ConfigConnector.getInstance();
             if (configConnector.getConfigValue("api.enabled", "API_ENABLED", "false").equalsIgnoreCase("true")) {
-                ApiConnector apiConnector = new ApiConnector(configConnector);
+                if (apiConnector == null) {
+                    apiConnector = new ApiConnector(configConnector);
+                }
                 if (apiConnector.testConnection()) {
                     LOGGER.info("API connection test successful.");
                 } else {
@@ -61,48 +77,108 @@ public class Main {
                 }
                 configConnector.setApiConnector(apiConnector);
 
-                ArrayList<Unit> apiUnits = apiConnector.getAllUnits();
-                apiUnits.forEach(unit -> {
-                    configConnector.getUnitMappings().put(unit.getName(), unit.getId());
-                    configConnector.getUnits().put(unit.getId(), unit);
-                });
-                LOGGER.info("Found {} units in API.", apiUnits.size());
+                ConfigConnector.LoadedUnitCatalog catalog = configConnector.refreshUnitCatalog();
+                List<Unit> apiUnits = catalog.units();
+                LOGGER.info("Found {} units in API{}.", apiUnits.size(), catalog.fromCache() ? " (cached)" : "");
                 if (configConnector.getConfigValue("db.units.upload", "API_SYNC_UNITS", "false").equalsIgnoreCase("true")) {
                     LOGGER.info("Synchronizing units from API to database...");
 
-                    HashSet<Unit> dbUnits = configConnector.getMariaDBConnector().getUnits();
-
-                    for (Unit dbUnit : dbUnits) {
-                        LOGGER.info("Checking unit: ({})", dbUnit.getName());
-                        if (apiUnits.stream().noneMatch(u -> u.getName().equals(dbUnit.getName()))) {
-                            LOGGER.info("Unit '{}' exists in database but not in API; creating in API. ", dbUnit);
-                            Unit unit = apiConnector.createUnit(dbUnit);
-                            configConnector.getUnitMappings().put(unit.getName(), unit.getId());
-                            configConnector.getUnits().put(unit.getId(), unit);
-                        } else {
-                            apiUnits.stream().filter(u -> u.getName().equals(dbUnit.getName())).findFirst().ifPresent(unit -> {
-                                LOGGER.info("Unit '{}' exists in both database and API; skipping creation.", dbUnit.getName());
-                                configConnector.getUnits().put(unit.getId(), unit);
-                                configConnector.getUnitMappings().put(unit.getName(), unit.getId());
-
-                                unit.setStatus(dbUnit.getStatus());
-                                unit.setPosition(dbUnit.getPosition());
-                                apiConnector.updateUnit(unit);
-                            });
-                        }
+                    UnitSnapshot snapshot = configConnector.getMariaDBConnector().getUnitSnapshot();
+                    snapshot.refresh();
+                    Collection<Unit> dbUnits = snapshot.getUnits();
+
+                    int concurrency = Integer.parseInt(configConnector.getConfigValue("db.units.sync_concurrency", "DB_UNITS_SYNC_CONCURRENCY", "4"));
+                    new UnitReconciler(apiConnector, configConnector, concurrency).reconcile(dbUnits, apiUnits, !catalog.fromCache());
+                    int reconcileInterval = Integer.parseInt(configConnector.getConfigValue("db.units.reconcile_interval_seconds", "DB_UNITS_RECONCILE_INTERVAL_SECONDS", "0"));
+                    fullRefreshEvery = Integer.parseInt(configConnector.getConfigValue("db.units.full_refresh_every", "DB_UNITS_FULL_REFRESH_EVERY", "60"));
+                    if (reconcileInterval > 0) {
+                        executor.scheduleWithFixedDelay(this::reconcileChangedUnits, reconcileInterval, reconcileInterval, TimeUnit.SECONDS);
                     }
                 } else {
                     LOGGER.info("API unit synchronization is disabled.");
                 }
             }
-
-            if (configConnector.getConfigValue("db.liveconnection.enabled", "DB_LIVECONNECTION_ENABLED", "false").equalsIgnoreCase("true")) {
-                OutBoxWatcher.start(configConnector.getMariaDBConnector(), configConnector.getApiConnector());
-            }
         } catch (Exception e) {
             LOGGER.error("Error during startup. retrying in 60 seconds", e);
             executor.schedule(this::initApiLiveConnection, 60, TimeUnit.SECONDS);
+            return;
         }
 
+        if (configConnector.getConfigValue("db.liveconnection.enabled", "DB_LIVECONNECTION_ENABLED", "false").equalsIgnoreCase("true")) {
+            startOutbox(configConnector);
+        }
+    }
+
+    /**
+     * Start the outbox watcher and the services around it. Runs once; a failing optional part is logged and
+     * skipped instead of starting everything again.
+     */
+    private void startOutbox(ConfigConnector configConnector) {
+        boolean coalesce = configConnector.getConfigValue("db.outbox.coalesce", "DB_OUTBOX_COALESCE", "false").equalsIgnoreCase("true");
+        int parallelism = Integer.parseInt(configConnector.getConfigValue("db.outbox.parallelism", "DB_OUTBOX_PARALLELISM", "1"));
+        int partitionQueueSize = Integer.parseInt(configConnector.getConfigValue("db.outbox.partition_queue_size", "DB_OUTBOX_PARTITION_QUEUE_SIZE", "1000"));
+        OutboxSpool spool = null;
+        int spoolAttempts = Integer.parseInt(configConnector.getConfigValue("db.outbox.spool.max_attempts", "DB_OUTBOX_SPOOL_MAX_ATTEMPTS", "5"));
+        if (configConnector.getConfigValue("db.outbox.spool.enabled", "DB_OUTBOX_SPOOL_ENABLED", "false").equalsIgnoreCase("true")) {
+            String spoolDir = configConnector.getConfigValue("db.outbox.spool.dir", "DB_OUTBOX_SPOOL_DIR", "spool");
+            int segmentMb = Integer.parseInt(configConnector.getConfigValue("db.outbox.spool.segment_mb", "DB_OUTBOX_SPOOL_SEGMENT_MB", "8"));
+            try {
+                spool = new OutboxSpool(Path.of(Utilities.getCurrentWorkingDirectory().toString(), spoolDir), segmentMb * 1024 * 1024);
+            } catch (IOException e) {
+                LOGGER.error("Failed to open outbox spool in {}, delivering directly: {}", spoolDir, e.getMessage(), e);
+            }
+        }
+        OutBoxWatcher.start(configConnector.getMariaDBConnector(), configConnector.getApiConnector(), coalesce, parallelism, partitionQueueSize, spool, spoolAttempts);
+        try {
+            OutboxRetentionService.start(configConnector.getMariaDBConnector());
+        } catch (Exception e) {
+            LOGGER.error("Failed to start outbox retention, SENT rows are not purged: {}", e.getMessage(), e);
+        }
+        if (configConnector.getConfigValue("db.binlog.enabled", "DB_BINLOG_ENABLED", "false").equalsIgnoreCase("true")) {
+            try {
+                int safetyPoll = Integer.parseInt(configConnector.getConfigValue("db.binlog.safety_poll_seconds", "DB_BINLOG_SAFETY_POLL_SECONDS", "30"));
+                OutBoxWatcher.enableChangeCapture(new BinlogConnector(configConnector), safetyPoll);
+            } catch (Exception e) {
+                LOGGER.error("Failed to set up binlog change capture, polling the outbox instead: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Push units changed in the database since the last snapshot refresh to the API. Changes are computed
+     * against the cached API unit, but sent from a copy. Every {@code db.units.full_refresh_every} runs the
+     * snapshot is reloaded completely so deleted units drop out.
+     */
+    private void reconcileChangedUnits() {
+        try {
+            ConfigConnector configConnector = ConfigConnector.getInstance();
+            ApiConnector apiConnector = configConnector.getApiConnector();
+            UnitSnapshot snapshot = configConnector.getMariaDBConnector().getUnitSnapshot();
+            List<Unit> changed;
+            if (fullRefreshEvery > 0 && ++refreshesSinceFull >= fullRefreshEvery) {
+                refreshesSinceFull = 0;
+                changed = snapshot.fullRefresh();
+            } else {
+                changed = snapshot.refresh();
+            }
+            for (Unit dbUnit : changed) {
+                Unit apiUnit = configConnector.getUnits().get(configConnector.getUnitMappings().get(dbUnit.getName()));
+                if (apiUnit == null) {
+                    LOGGER.debug("Skipping reconciliation of unmapped unit '{}'", dbUnit.getName());
+                    continue;
+                }
+                // the cached unit belongs to the outbox threads; push a copy so this thread never mutates it
+                Unit update = new Unit(apiUnit.getId(), apiUnit.getName());
+                update.setStatus(apiUnit.getStatus());
+                update.setPosition(apiUnit.getPosition());
+                update.setSpeakRequest(apiUnit.isSpeakRequest());
+                update.clearChanges();
+                update.setStatus(dbUnit.getStatus());
+                update.setPosition(dbUnit.getPosition());
+                apiConnector.pushUnit(update);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Unit reconciliation failed: {}", e.getMessage(), e);
+        }
     }
 }
@@ -1,6 +1,5 @@
 package dev.nilswitt.rk.edpmonitoring.connectors;
 
-import dev.nilswitt.rk.edpmonitoring.connectors.apiRecords.ApiResponse;
 import dev.nilswitt.rk.edpmonitoring.connectors.apiRecords.LoginPayload;
 import dev.nilswitt.rk.edpmonitoring.connectors.apiRecords.LoginResponse;
 import dev.nilswitt.rk.edpmonitoring.enitites.Position;
@@ -12,40 +11,151 @@ import tools.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class ApiConnector {
 
-    private String apiKey;
+    private final TokenManager tokens;
     private final String apiUrl;
     private final String username;
     private final String password;
     private static final Logger LOGGER = LogManager.getLogger(ApiConnector.class);
     private final ConfigConnector configConnector;
     private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClientMetrics httpMetrics = new HttpClientMetrics();
+    private final OkHttpClient client;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private final boolean asyncEnabled;
+    private final boolean patchUpdates;
+    private final boolean parseUpdateResponse;
+    private final int unitPageSize;
+    private final RateLimiter rateLimiter;
+    private final String idempotencyHeader;
+    private final DeliveryDedupeCache dedupe;
+    private final CircuitBreaker circuitBreaker;
+    private final Semaphore inFlight;
+    private final Queue<Runnable> waitingForPermit = new ConcurrentLinkedQueue<>();
 
     public ApiConnector(String apiUrl, String apiKey, String username, String password, ConfigConnector configConnector) {
-        this.apiKey = apiKey;
         this.apiUrl = apiUrl;
         this.username = username;
         this.password = password;
 
         this.configConnector = configConnector;
+        int maxInFlight = Integer.parseInt(configConnector.getConfigValue("api.async.max_in_flight", "API_ASYNC_MAX_IN_FLIGHT", "64"));
+        this.asyncEnabled = configConnector.getConfigValue("api.async.enabled", "API_ASYNC_ENABLED", "false").equalsIgnoreCase("true");
+        this.inFlight = new Semaphore(maxInFlight);
+        this.patchUpdates = configConnector.getConfigValue("api.update.method", "API_UPDATE_METHOD", "put").equalsIgnoreCase("patch");
+        this.unitPageSize = Integer.parseInt(configConnector.getConfigValue("api.units.page_size", "API_UNITS_PAGE_SIZE", "0"));
+        this.parseUpdateResponse = configConnector.getConfigValue("api.update.parse_response", "API_UPDATE_PARSE_RESPONSE", "true").equalsIgnoreCase("true");
+
+        double ratePerSecond = Double.parseDouble(configConnector.getConfigValue("api.rate_limit.per_second", "API_RATE_LIMIT_PER_SECOND", "0"));
+        int rateBurst = Integer.parseInt(configConnector.getConfigValue("api.rate_limit.burst", "API_RATE_LIMIT_BURST", "10"));
+        long rateMaxWait = Long.parseLong(configConnector.getConfigValue("api.rate_limit.max_wait_ms", "API_RATE_LIMIT_MAX_WAIT_MS", "1000"));
+        int failureThreshold = Integer.parseInt(configConnector.getConfigValue("api.circuit.failure_threshold", "API_CIRCUIT_FAILURE_THRESHOLD", "5"));
+        long openSeconds = Long.parseLong(configConnector.getConfigValue("api.circuit.open_seconds", "API_CIRCUIT_OPEN_SECONDS", "30"));
+        int halfOpenCalls = Integer.parseInt(configConnector.getConfigValue("api.circuit.half_open_calls", "API_CIRCUIT_HALF_OPEN_CALLS", "1"));
+        this.rateLimiter = new RateLimiter(ratePerSecond, rateBurst);
+        this.circuitBreaker = new CircuitBreaker("api", failureThreshold, TimeUnit.SECONDS.toMillis(openSeconds), halfOpenCalls);
+        this.idempotencyHeader = configConnector.getConfigValue("api.idempotency.header", "API_IDEMPOTENCY_HEADER", "Idempotency-Key").trim();
+        int dedupeEntries = Integer.parseInt(configConnector.getConfigValue("api.dedupe.max_entries", "API_DEDUPE_MAX_ENTRIES", "10000"));
+        long dedupeTtl = Long.parseLong(configConnector.getConfigValue("api.dedupe.ttl_seconds", "API_DEDUPE_TTL_SECONDS", "600"));
+        this.dedupe = new DeliveryDedupeCache(dedupeEntries, TimeUnit.SECONDS.toMillis(dedupeTtl));
+
+        int maxIdle = Integer.parseInt(configConnector.getConfigValue("api.http.max_idle_connections", "API_HTTP_MAX_IDLE_CONNECTIONS", "5"));
+        long keepAlive = Long.parseLong(configConnector.getConfigValue("api.http.keep_alive_seconds", "API_HTTP_KEEP_ALIVE_SECONDS", "300"));
+        long connectTimeout = Long.parseLong(configConnector.getConfigValue("api.http.connect_timeout_ms", "API_HTTP_CONNECT_TIMEOUT_MS", "5000"));
+        long readTimeout = Long.parseLong(configConnector.getConfigValue("api.http.read_timeout_ms", "API_HTTP_READ_TIMEOUT_MS", "10000"));
+        long callTimeout = Long.parseLong(configConnector.getConfigValue("api.http.call_timeout_ms", "API_HTTP_CALL_TIMEOUT_MS", "30000"));
+        boolean http2 = configConnector.getConfigValue("api.http.http2", "API_HTTP_HTTP2", "true").equalsIgnoreCase("true");
+        this.client = buildClient(maxIdle, keepAlive, connectTimeout, readTimeout, callTimeout, http2, maxInFlight,
+                httpMetrics, new ApiGuardInterceptor(rateLimiter, circuitBreaker, rateMaxWait));
+        this.tokens = new TokenManager(apiKey, this::requestToken, configConnector);
     }
     public ApiConnector(ConfigConnector configConnector) {
-        this.configConnector = configConnector;
-        String apiUrl = configConnector.getConfigValue("api.url", "API_URL", "http://localhost:8080/api");
-        String apiToken = configConnector.getConfigValue("api.token", "API_TOKEN", null);
-        String apiUsername = configConnector.getConfigValue("api.username", "API_TOKEN", null);
-        String apiPassword = configConnector.getConfigValue("api.password", "API_TOKEN", null);
-        this.apiUrl = apiUrl;
-        this.apiKey = apiToken;
-        this.username = apiUsername;
-        this.password = apiPassword;
+        this(configConnector.getConfigValue("api.url", "API_URL", "http://localhost:8080/api"),
+                configConnector.getConfigValue("api.token", "API_TOKEN", null),
+                configConnector.getConfigValue("api.username", "API_TOKEN", null),
+                configConnector.getConfigValue("api.password", "API_TOKEN", null),
+                configConnector);
         LOGGER.info("Using API URL: {}", apiUrl);
     }
 
+    /**
+     * One client per connector, so all calls share its connection pool and dispatcher threads.
+     * HTTP/2 is negotiated via ALPN on TLS connections when the server supports it.
+     */
+    private static OkHttpClient buildClient(int maxIdle, long keepAliveSeconds, long connectTimeoutMs, long readTimeoutMs,
+                                            long callTimeoutMs, boolean http2, int maxInFlight,
+                                            EventListener metrics, Interceptor guard) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(maxInFlight, 64));
+        dispatcher.setMaxRequestsPerHost(Math.max(maxInFlight, 5));
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdle, keepAliveSeconds, TimeUnit.SECONDS))
+                .protocols(http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .eventListener(metrics)
+                .addInterceptor(guard)
+                .build();
+    }
+
+    public Map<String, Object> getHttpStats() {
+        return httpMetrics.getStats(client.connectionPool());
+    }
+
+    public Map<String, Object> getGuardStatus() {
+        return Map.of("circuit", circuitBreaker.getStatus(), "rate_limit", rateLimiter.getStatus(), "dedupe", dedupe.getStats());
+    }
+
+    /**
+     * False while the circuit breaker is open, so callers can skip work that would be rejected anyway.
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * True while the circuit breaker only lets trial calls through (half-open, or open with the wait over),
+     * so callers should send a single probe instead of a full batch.
+     */
+    public boolean isProbing() {
+        return circuitBreaker.isCallPermitted() && !circuitBreaker.isClosed();
+    }
+
+    /**
+     * Outcome of delivering an outbox row. {@code REJECTED} means the call was never sent because the rate
+     * limiter or circuit breaker refused it, so it must not count as a delivery attempt.
+     */
+    public enum Delivery {SENT, FAILED, REJECTED}
+
+    private static Delivery failureOf(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiGuardInterceptor.RejectedCallException) {
+                return Delivery.REJECTED;
+            }
+        }
+        return Delivery.FAILED;
+    }
+
+    public Map<String, Object> getAuthStatus() {
+        return tokens.getStatus();
+    }
+
     public boolean testConnection() {
 
         if (apiUrl == null || apiUrl.isEmpty()) {
@@ -53,17 +163,13 @@ public class ApiConnector {
             return false;
         }
 
-        if (this.apiKey == null || this.apiKey.isEmpty()) {
-            LOGGER.debug("testConnection: apiKey missing, attempting login");
-            this.login();
-        }
-        if (this.apiKey == null || this.apiKey.isEmpty()) {
+        String token = tokens.getToken();
+        if (token == null || token.isEmpty()) {
             LOGGER.warn("testConnection: apiKey is empty or null after login");
             return false;
         }
 
         LOGGER.info("testConnection: verifying token at {}", apiUrl + "/token/");
-        OkHttpClient client = new OkHttpClient.Builder().build();
         MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
         if (mediaType == null) {
             LOGGER.warn("testConnection: Failed to parse media type");
@@ -74,7 +180,7 @@ public class ApiConnector {
                 .url(apiUrl + "/token")
                 .get()
                 .addHeader("Content-Type", "application/json")
-                .addHeader("Authorization", "Bearer " + this.apiKey)
+                .addHeader("Authorization", "Bearer " + token)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
@@ -87,14 +193,20 @@ public class ApiConnector {
         }
     }
 
+    /**
+     * Make sure a valid token is held, logging in if it is missing or about to expire.
+     */
     public String login() {
+        return tokens.getToken();
+    }
+
+    private String requestToken() {
         if (this.apiUrl == null || this.apiUrl.isEmpty()) {
             LOGGER.warn("login: apiUrl is null or empty");
             return null;
         }
 
         LOGGER.info("login: attempting to authenticate user '{}' at {}", this.username, this.apiUrl);
-        OkHttpClient client = new OkHttpClient.Builder().build();
         MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
         if (mediaType == null) {
             LOGGER.error("login: Failed to parse media type");
@@ -117,7 +229,6 @@ public class ApiConnector {
             if (code >= 200 && code < 300) {
                 LoginResponse res = mapper.readValue(response.body().string(), LoginResponse.class);
 
-                this.apiKey = res.token();
                 LOGGER.info("login: authentication successful for user '{}'", this.username);
                 return res.token();
             }
@@ -129,93 +240,163 @@ public class ApiConnector {
         }
     }
 
-
-    private void setUnitStatus(String unitId, int status) {
-        LOGGER.info("setUnitStatus: Setting status of unit {} to {}", unitId, status);
-        if (apiUrl == null || apiUrl.isEmpty()) {
-            LOGGER.warn("setUnitStatus: apiUrl is null or empty");
+    /**
+     * PATCH only the fields of the unit that changed since its last successful push. If the request fails
+     * the fields stay marked as changed, so the next push sends them again.
+     *
+     * @return the unit as returned by the API, or the given unit if response parsing is disabled
+     */
+    private Unit patchUnit(Unit unit, String idempotencyKey) {
+        Set<String> changes = unit.takeChanges();
+        if (changes.isEmpty()) {
+            LOGGER.debug("patchUnit: unit {} has no changes", unit.getId());
+            return unit;
         }
-
-        OkHttpClient client = new OkHttpClient.Builder().build();
-        MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
-        if (mediaType == null) {
-            LOGGER.error("setUnitStatus: Failed to parse media type");
+        try {
+            Unit result = patch(unit.getId().toString(), deltaOf(unit, changes), idempotencyKey, true);
+            return result != null ? result : unit;
+        } catch (RuntimeException e) {
+            unit.restoreChanges(changes);
+            throw e;
         }
+    }
 
-        RequestBody body = RequestBody.create("json.toJSONString()", mediaType);
-
-        String endpoint = apiUrl + "/units/{}/".replace("{}", unitId);
-        LOGGER.debug("setUnitStatus: PATCH {}", endpoint);
-        Request request = new Request.Builder()
-                .url(endpoint)
+    private Unit patch(String unitId, Map<String, Object> delta, String idempotencyKey, boolean retryOnUnauthorized) {
+        String token = tokens.getToken();
+        RequestBody body = RequestBody.create(this.mapper.writeValueAsString(delta), JSON);
+        Request request = withIdempotencyKey(new Request.Builder(), idempotencyKey)
+                .url(apiUrl + "/units/" + unitId)
                 .patch(body)
                 .addHeader("Content-Type", "application/json")
-                .addHeader("Authorization", "Bearer " + apiKey)
+                .addHeader("Authorization", "Bearer " + token)
                 .build();
+        LOGGER.debug("patch: PATCH unit {} fields {}", unitId, delta.keySet());
         try (Response response = client.newCall(request).execute()) {
             int code = response.code();
-            LOGGER.info("setUnitStatus: response code {}", code);
-
-            if (code == 401) {
-                LOGGER.info("setUnitStatus: unauthorized, attempting re-login and retry");
-                this.login();
-                setUnitStatus(unitId, status);
-                return;
+            if (code == 401 && retryOnUnauthorized) {
+                LOGGER.info("patch: unauthorized, refreshing token");
+                tokens.refresh(token);
+                return patch(unitId, delta, idempotencyKey, false);
             }
             if (code < 200 || code >= 300) {
-                LOGGER.error("setUnitStatus: Failed to set status for unit {}; Code: {}", unitId, code);
+                LOGGER.error("patch: Failed to patch unit {}; Code: {}", unitId, code);
+                throw new RuntimeException("Failed to patch unit; Code: " + code);
             }
+            return readUnitResponse(response);
         } catch (IOException e) {
-            LOGGER.error("setUnitStatus: IOException while updating unit {}", unitId, e);
+            LOGGER.error("patch: IOException while patching unit {}", unitId, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Build the minimal PATCH body for the given changed fields.
+     */
+    private static Map<String, Object> deltaOf(Unit unit, Set<String> changes) {
+        Map<String, Object> delta = new LinkedHashMap<>();
+        for (String field : changes) {
+            switch (field) {
+                case "name" -> delta.put(field, unit.getName());
+                case "position" -> delta.put(field, unit.getPosition());
+                case "status" -> delta.put(field, unit.getStatus());
+                case "speakRequest" -> delta.put(field, unit.isSpeakRequest());
+                default -> LOGGER.warn("deltaOf: unknown unit field {}", field);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Parse the unit in an update response, or skip the body if {@code api.update.parse_response} is off.
+     */
+    private Unit readUnitResponse(Response response) throws IOException {
+        if (!parseUpdateResponse) {
+            return null;
+        }
+        String responseBody = response.body().string();
+        if (responseBody.isEmpty()) {
+            return null;
+        }
+        Unit unit = mapper.readValue(responseBody, Unit.class);
+        unit.clearChanges();
+        return unit;
+    }
+
+    /**
+     * Push a unit using the configured update method: a delta PATCH or a full PUT.
+     */
+    public Unit pushUnit(Unit unit) {
+        return pushUnit(unit, null);
+    }
+
+    /**
+     * Push a unit, sending {@code idempotencyKey} in the configured idempotency header if it is not null.
+     */
+    public Unit pushUnit(Unit unit, String idempotencyKey) {
+        return patchUpdates ? patchUnit(unit, idempotencyKey) : updateUnit(unit, idempotencyKey, true);
+    }
+
+    private Request.Builder withIdempotencyKey(Request.Builder builder, String idempotencyKey) {
+        if (idempotencyKey != null && !idempotencyHeader.isEmpty()) {
+            builder.header(idempotencyHeader, idempotencyKey);
         }
+        return builder;
     }
 
 
     public ArrayList<Unit> getAllUnits() {
         ArrayList<Unit> units = new ArrayList<>();
-
         if (apiUrl == null || apiUrl.isEmpty()) {
             LOGGER.warn("getAllUnits: apiUrl is null or empty");
+            return units;
         }
 
-        LOGGER.info("getAllUnits: requesting units from {}", apiUrl + "/units");
-        OkHttpClient client = new OkHttpClient.Builder().build();
-        MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
-        if (mediaType == null) {
-            LOGGER.warn("getAllUnits: Failed to parse media type");
+        long start = System.nanoTime();
+        try (UnitPageIterator iterator = streamUnits()) {
+            iterator.forEachRemaining(units::add);
+            LOGGER.info("getAllUnits: loaded {} units from {} page(s) in {} ms", units.size(), iterator.getPages(),
+                    Math.round((System.nanoTime() - start) / 1_000_000.0));
+        } catch (RuntimeException e) {
+            LOGGER.error("getAllUnits: Failed to load units after {} unit(s): {}", units.size(), e.getMessage(), e);
         }
+        return units;
+    }
 
-        Request request = new Request.Builder()
-                .url(apiUrl + "/units")
-                .get()
-                .addHeader("Authorization", "Bearer " + apiKey)
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            int code = response.code();
-            String responseBody = response.body().string();
-            LOGGER.debug("getAllUnits: response code {}, body: {}", code, responseBody);
-            if (code == 401) {
-                LOGGER.info("getAllUnits: unauthorized, attempting re-login");
-                this.login();
-                return getAllUnits();
-            }
-            if (code < 200 || code >= 300) {
-                LOGGER.error("getAllUnits: Failed to get units; Code: {}", code);
-            }
-            ObjectMapper mapper = new ObjectMapper();
-            LOGGER.info("getAllUnits: parsing response {}", responseBody);
-            ApiResponse objResponse = mapper.readValue(responseBody, ApiResponse.class);
-            if (objResponse != null && objResponse._embedded != null && objResponse._embedded.unitList() != null) {
-                units.addAll(Arrays.asList(objResponse._embedded.unitList()));
-            }
-
-            LOGGER.info("getAllUnits: response code {}, body: {}", code, objResponse.toString());
+    /**
+     * Units of the API together with the validators of the response they came from.
+     */
+    public record UnitCatalog(List<Unit> units, String etag, String lastModified) {
+    }
 
-        } catch (IOException e) {
-            LOGGER.error("getAllUnits: Connection failed", e);
+    /**
+     * Fetch the unit catalogue unless it is unchanged since the given validators were issued.
+     *
+     * @return null if the server answered 304 Not Modified
+     */
+    public UnitCatalog fetchUnitCatalog(String etag, String lastModified) {
+        long start = System.nanoTime();
+        try (UnitPageIterator iterator = streamUnits().conditional(etag, lastModified)) {
+            ArrayList<Unit> units = new ArrayList<>();
+            iterator.forEachRemaining(units::add);
+            if (iterator.isNotModified()) {
+                return null;
+            }
+            LOGGER.info("fetchUnitCatalog: loaded {} units from {} page(s) in {} ms", units.size(), iterator.getPages(),
+                    Math.round((System.nanoTime() - start) / 1_000_000.0));
+            return new UnitCatalog(units, iterator.getETag(), iterator.getLastModified());
         }
+    }
 
-        return units;
+    /**
+     * Stream all units of the API, following HAL page links. With {@code api.units.page_size} set, pages of
+     * that size are requested; otherwise the server's default paging applies.
+     */
+    public UnitPageIterator streamUnits() {
+        HttpUrl.Builder url = HttpUrl.get(apiUrl + "/units").newBuilder();
+        if (unitPageSize > 0) {
+            url.addQueryParameter("size", Integer.toString(unitPageSize));
+        }
+        return new UnitPageIterator(client, tokens, mapper, url.build());
     }
 
 
@@ -225,8 +406,67 @@ public class ApiConnector {
 
     record OutboxPayload(String OLD_STATUS, String NEW_STATUS, double OLD_KOORDX, double NEW_KOORDX, double OLD_KOORDY, double NEW_KOORDY) {
     }
-    public void processOutboxRow(MariaDBConnector.WorkerOutbox row) {
-        String payload = row.payload;
+    /**
+     * Apply an outbox row to the cached unit and push it to the API.
+     *
+     * @return SENT if the API accepted the update
+     */
+    public Delivery processOutboxRow(MariaDBConnector.WorkerOutbox row) {
+        if (dedupe.contains(row.correlationId)) {
+            LOGGER.debug("processOutboxRow: skipping already delivered row {} ({})", row.id, row.correlationId);
+            return Delivery.SENT;
+        }
+        Unit unit = applyOutboxRow(row);
+        if (unit == null) {
+            return Delivery.FAILED;
+        }
+        try {
+            pushUnit(unit, row.correlationId);
+            dedupe.record(row.correlationId);
+            return Delivery.SENT;
+        } catch (Exception e) {
+            Delivery result = failureOf(e);
+            if (result == Delivery.REJECTED) {
+                LOGGER.debug("processOutboxRow: row for pk={} not sent: {}", row.pk, e.getMessage());
+            } else {
+                LOGGER.error("processOutboxRow: failed to process outbox row for pk={}", row.pk, e);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #processOutboxRow}. The future completes with SENT only after the API
+     * answered with a 2xx status.
+     */
+    public CompletableFuture<Delivery> processOutboxRowAsync(MariaDBConnector.WorkerOutbox row) {
+        if (dedupe.contains(row.correlationId)) {
+            LOGGER.debug("processOutboxRowAsync: skipping already delivered row {} ({})", row.id, row.correlationId);
+            return CompletableFuture.completedFuture(Delivery.SENT);
+        }
+        Unit unit = applyOutboxRow(row);
+        if (unit == null) {
+            return CompletableFuture.completedFuture(Delivery.FAILED);
+        }
+        return updateUnitAsync(unit, row.correlationId).handle((updated, e) -> {
+            if (e != null) {
+                Delivery result = failureOf(e);
+                if (result == Delivery.FAILED) {
+                    LOGGER.error("processOutboxRowAsync: failed to process outbox row for pk={}: {}", row.pk, e.getMessage());
+                }
+                return result;
+            }
+            dedupe.record(row.correlationId);
+            return Delivery.SENT;
+        });
+    }
+
+    /**
+     * Resolve the cached unit for an outbox row and apply the row's new state to it.
+     *
+     * @return the updated unit, or null if the unit is unknown or the payload cannot be parsed
+     */
+    private Unit applyOutboxRow(MariaDBConnector.WorkerOutbox row) {
         String unitPK = row.pk;
 
         UUID unitID = configConnector.getUnitMappings().get(unitPK);
@@ -234,32 +474,31 @@ public class ApiConnector {
         if (unit == null) {
             //TODO: handle missing unit with creation
             LOGGER.error("processOutboxRow: No unit found for pk={}", unitPK);
-            return;
+            return null;
         }
 
-
-
         try {
-            OutboxPayload outboxPayload = mapper.readValue(payload, OutboxPayload.class);
+            OutboxPayload outboxPayload = mapper.readValue(row.payload, OutboxPayload.class);
             unit.setStatus(Integer.parseInt(outboxPayload.NEW_STATUS));
             unit.setPosition(new Position(outboxPayload.NEW_KOORDX, outboxPayload.NEW_KOORDY));
-
-            updateUnit(unit);
-
+            return unit;
         } catch (Exception e) {
-            LOGGER.error("processOutboxRow: failed to process outbox row for pk={}", row.pk, e);
+            LOGGER.error("processOutboxRow: failed to parse outbox row for pk={}", row.pk, e);
+            return null;
         }
-
-
     }
 
     public Unit createUnit(Unit unit) {
+        return createUnit(unit, true);
+    }
+
+    private Unit createUnit(Unit unit, boolean retryOnUnauthorized) {
+        String token = tokens.getToken();
         if (apiUrl == null || apiUrl.isEmpty()) {
             LOGGER.warn("createUnit: apiUrl is null or empty");
         }
 
         LOGGER.info("createUnit: creating unit '{}'", unit.getName());
-        OkHttpClient client = new OkHttpClient.Builder().build();
         MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
         if (mediaType == null) {
             LOGGER.error("createUnit: Failed to parse media type");
@@ -272,16 +511,16 @@ public class ApiConnector {
                 .url(apiUrl + "/units")
                 .post(body)
                 .addHeader("Content-Type", "application/json")
-                .addHeader("Authorization", "Bearer " + apiKey)
+                .addHeader("Authorization", "Bearer " + token)
                 .build();
         try (Response response = client.newCall(request).execute()) {
             int code = response.code();
             LOGGER.info("createUnit: response code {}", code);
 
-            if (code == 401) {
-                LOGGER.info("createUnit: unauthorized, attempting re-login");
-                this.login();
-                return createUnit(unit);
+            if (code == 401 && retryOnUnauthorized) {
+                LOGGER.info("createUnit: unauthorized, refreshing token");
+                tokens.refresh(token);
+                return createUnit(unit, false);
             }
             if (code < 200 || code >= 300) {
                 LOGGER.error("createUnit: Failed to create unit '{}'; Code: {}", unit.getName(), code);
@@ -296,8 +535,12 @@ public class ApiConnector {
     }
 
     public Unit updateUnit(Unit unit) {
+        return updateUnit(unit, null, true);
+    }
+
+    private Unit updateUnit(Unit unit, String idempotencyKey, boolean retryOnUnauthorized) {
+        String token = tokens.getToken();
         LOGGER.info("updateUnit: updating unit id={}", unit.getId());
-        OkHttpClient client = new OkHttpClient.Builder().build();
         MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
         if (mediaType == null) {
             LOGGER.error("updateUnit: Failed to parse media type");
@@ -305,20 +548,20 @@ public class ApiConnector {
 
         RequestBody body = RequestBody.create(this.mapper.writeValueAsString(unit), mediaType);
 
-        Request request = new Request.Builder()
+        Request request = withIdempotencyKey(new Request.Builder(), idempotencyKey)
                 .url(apiUrl + "/units/" + unit.getId().toString())
                 .put(body)
                 .addHeader("Content-Type", "application/json")
-                .addHeader("Authorization", "Bearer " + apiKey)
+                .addHeader("Authorization", "Bearer " + token)
                 .build();
         try (Response response = client.newCall(request).execute()) {
             int code = response.code();
             LOGGER.info("updateUnit: response code {}", code);
 
-            if (code == 401) {
-                LOGGER.info("updateUnit: unauthorized, attempting re-login");
-                this.login();
-                return updateUnit(unit);
+            if (code == 401 && retryOnUnauthorized) {
+                LOGGER.info("updateUnit: unauthorized, refreshing token");
+                tokens.refresh(token);
+                return updateUnit(unit, idempotencyKey, false);
             }
             if (code < 200 || code >= 300) {
                 LOGGER.error("updateUnit: Failed to update unit {}; Code: {}", unit.getId(), code);
@@ -327,12 +570,133 @@ public class ApiConnector {
                 throw new RuntimeException("Failed to create unit; Code: " + code);
             }
             LOGGER.info("updateUnit: unit {} updated successfully", unit.getId());
-            return this.mapper.readValue(response.body().string(), Unit.class);
+            unit.clearChanges();
+            Unit result = readUnitResponse(response);
+            return result != null ? result : unit;
         } catch (IOException e) {
             LOGGER.error("updateUnit: IOException while updating unit {}", unit.getId(), e);
             throw new RuntimeException(e);
         }
     }
 
+    public boolean isAsyncEnabled() {
+        return asyncEnabled;
+    }
+
+    /**
+     * Non-blocking variant of {@link #updateUnit}. While {@code api.async.max_in_flight} requests are
+     * outstanding, further calls are queued and started as permits are released; the caller never blocks.
+     * A 401 triggers one re-login and retry; any other non-2xx status completes the future exceptionally.
+     */
+    public CompletableFuture<Unit> updateUnitAsync(Unit unit, String idempotencyKey) {
+        CompletableFuture<Unit> future = new CompletableFuture<>();
+        String method = "PUT";
+        RequestBody body;
+        if (patchUpdates) {
+            Set<String> changes = unit.takeChanges();
+            if (changes.isEmpty()) {
+                return CompletableFuture.completedFuture(unit);
+            }
+            method = "PATCH";
+            body = RequestBody.create(this.mapper.writeValueAsString(deltaOf(unit, changes)), JSON);
+            future.whenComplete((updated, e) -> {
+                if (e != null) {
+                    unit.restoreChanges(changes);
+                }
+            });
+        } else {
+            body = RequestBody.create(this.mapper.writeValueAsString(unit), JSON);
+        }
+        String requestMethod = method;
+        waitingForPermit.add(() -> enqueueUpdate(unit, requestMethod, body, idempotencyKey, future, true));
+        startPermittedCalls();
+        return future;
+    }
+
+    /**
+     * Start queued calls while permits are free. Never blocks, so it is safe on OkHttp callback threads,
+     * where a blocked thread would hold a dispatcher slot that the permit holders need to run.
+     */
+    private void startPermittedCalls() {
+        while (!waitingForPermit.isEmpty() && inFlight.tryAcquire()) {
+            Runnable call = waitingForPermit.poll();
+            if (call == null) {
+                inFlight.release();
+                continue;
+            }
+            try {
+                call.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("updateUnitAsync: failed to start queued call", e);
+                inFlight.release();
+            }
+        }
+    }
+
+    private void releasePermit() {
+        inFlight.release();
+        startPermittedCalls();
+    }
 
+    private void enqueueUpdate(Unit unit, String method, RequestBody body, String idempotencyKey, CompletableFuture<Unit> future, boolean retryOnUnauthorized) {
+        String token = tokens.getToken();
+        Request request = withIdempotencyKey(new Request.Builder(), idempotencyKey)
+                .url(apiUrl + "/units/" + unit.getId().toString())
+                .method(method, body)
+                .addHeader("Content-Type", "application/json")
+                .addHeader("Authorization", "Bearer " + token)
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                LOGGER.error("updateUnitAsync: IOException while updating unit {}", unit.getId(), e);
+                releasePermit();
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                Unit result = null;
+                Exception error = null;
+                boolean retry = false;
+                try (response) {
+                    int code = response.code();
+                    LOGGER.debug("updateUnitAsync: response code {} for unit {}", code, unit.getId());
+                    if (code == 401 && retryOnUnauthorized) {
+                        retry = true;
+                    } else if (code < 200 || code >= 300) {
+                        error = new RuntimeException("Failed to update unit; Code: " + code);
+                    } else {
+                        if (method.equals("PUT")) {
+                            unit.clearChanges();
+                        }
+                        result = readUnitResponse(response);
+                        if (result == null) {
+                            result = unit;
+                        }
+                    }
+                } catch (Exception e) {
+                    error = e;
+                }
+                if (retry) {
+                    LOGGER.info("updateUnitAsync: unauthorized, refreshing token");
+                    try {
+                        tokens.refresh(token);
+                        // the in-flight permit is handed over to the retry
+                        enqueueUpdate(unit, method, body, idempotencyKey, future, false);
+                        return;
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                }
+                // release before completing, so stages chained on the future find a free permit
+                releasePermit();
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(result);
+                }
+            }
+        });
+    }
 }
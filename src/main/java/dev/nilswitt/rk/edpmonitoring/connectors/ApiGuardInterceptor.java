@@ -0,0 +1,66 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Applies the rate limiter and circuit breaker to every call made through the API client, synchronous or
+ * asynchronous. Rejected calls fail immediately with a {@link RejectedCallException} instead of waiting for a
+ * timeout; they never reached the API.
+ * Connection errors, 5xx and 429 responses count as failures; everything else, including 4xx, as success.
+ */
+class ApiGuardInterceptor implements Interceptor {
+
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final long maxWaitMillis;
+
+    ApiGuardInterceptor(RateLimiter rateLimiter, CircuitBreaker circuitBreaker, long maxWaitMillis) {
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        try {
+            if (!rateLimiter.acquire(maxWaitMillis)) {
+                throw new RejectedCallException("API rate limit exceeded for " + chain.request().url().encodedPath());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the API rate limiter");
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            throw new RejectedCallException("API circuit breaker is open");
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        }
+        if (response.code() >= 500 || response.code() == 429) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * A call that was not sent because the rate limiter or the circuit breaker rejected it.
+     */
+    static class RejectedCallException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RejectedCallException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import dev.nilswitt.rk.edpmonitoring.Utilities;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows the MariaDB binlog and reports row changes on the watched tables. The binlog is only used as a
+ * wake-up signal; the rows themselves are still read from {@code webhook_outbox}, so a missed event never
+ * loses data, it only delays it until the next poll.
+ * <p>
+ * Requires {@code binlog_format=ROW} and a user with {@code REPLICATION SLAVE, REPLICATION CLIENT}.
+ */
+public class BinlogConnector {
+
+    private static final Logger LOGGER = LogManager.getLogger(BinlogConnector.class);
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    private static final String OUTBOX_TABLE = "webhook_outbox";
+
+    private final BinaryLogClient client;
+    private final BinlogPositionStore positionStore;
+    private final String database;
+    private final Set<String> tables;
+    private final Map<Long, String> tableIds = new ConcurrentHashMap<>();
+    private final AtomicLong events = new AtomicLong();
+    private volatile boolean connected = false;
+    private volatile long lastCheckpoint = 0;
+    private volatile boolean stopped = false;
+    private Thread thread;
+
+    public BinlogConnector(ConfigConnector configConnector) {
+        String url = configConnector.getConfigValue("db.url", "DB_URL", "jdbc:mariadb://localhost:3306/edp_monitoring");
+        URI uri = URI.create(url.substring("jdbc:".length()));
+        String host = configConnector.getConfigValue("db.binlog.host", "DB_BINLOG_HOST", uri.getHost());
+        int port = Integer.parseInt(configConnector.getConfigValue("db.binlog.port", "DB_BINLOG_PORT", Integer.toString(uri.getPort() > 0 ? uri.getPort() : 3306)));
+        String user = configConnector.getConfigValue("db.binlog.user", "DB_BINLOG_USER", configConnector.getConfigValue("db.user", "DB_USER", "edp_user"));
+        String pass = configConnector.getConfigValue("db.binlog.password", "DB_BINLOG_PASSWORD", configConnector.getConfigValue("db.password", "DB_PASSWORD", "edp_password"));
+        long serverId = Long.parseLong(configConnector.getConfigValue("db.binlog.server_id", "DB_BINLOG_SERVER_ID", "54321"));
+        String tableList = configConnector.getConfigValue("db.binlog.tables", "DB_BINLOG_TABLES", "webhook_outbox");
+        String positionFile = configConnector.getConfigValue("db.binlog.position_file", "DB_BINLOG_POSITION_FILE", "binlog.position");
+
+        this.database = uri.getPath() != null && uri.getPath().length() > 1 ? uri.getPath().substring(1) : null;
+        this.tables = new HashSet<>(Arrays.asList(tableList.split("\\s*,\\s*")));
+        this.positionStore = new BinlogPositionStore(Path.of(Utilities.getCurrentWorkingDirectory().toString(), positionFile));
+        this.client = new BinaryLogClient(host, port, user, pass);
+        this.client.setServerId(serverId);
+        this.client.setKeepAlive(true);
+
+        BinlogPositionStore.Position position = positionStore.load();
+        if (position != null) {
+            LOGGER.info("Resuming binlog from {}:{}", position.filename(), position.position());
+            client.setBinlogFilename(position.filename());
+            client.setBinlogPosition(position.position());
+        }
+        LOGGER.info("Using binlog change capture at {}:{} for tables {} (server id {})", host, port, tables, serverId);
+    }
+
+    /**
+     * Connect in a background thread and call {@code onChange} for every row event on a watched table.
+     * Updates of {@code webhook_outbox} are ignored, only inserts into it report a change. A failed connect
+     * is retried with exponential backoff; once connected, the client's keep-alive handles reconnects.
+     */
+    public void start(Runnable onChange) {
+        client.registerEventListener(event -> handleEvent(event, onChange));
+        client.registerLifecycleListener(new BinaryLogClient.AbstractLifecycleListener() {
+            @Override
+            public void onConnect(BinaryLogClient client) {
+                connected = true;
+                LOGGER.info("Binlog change capture connected at {}:{}", client.getBinlogFilename(), client.getBinlogPosition());
+            }
+
+            @Override
+            public void onCommunicationFailure(BinaryLogClient client, Exception ex) {
+                connected = false;
+                LOGGER.warn("Binlog change capture failed, falling back to polling: {}", ex.getMessage());
+            }
+
+            @Override
+            public void onDisconnect(BinaryLogClient client) {
+                connected = false;
+                checkpoint();
+                LOGGER.info("Binlog change capture disconnected");
+            }
+        });
+        thread = new Thread(this::connectWithBackoff, "binlog-cdc");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+    }
+
+    private void connectWithBackoff() {
+        long backoff = 1_000;
+        while (!stopped) {
+            try {
+                // blocks until disconnected
+                client.connect();
+                return;
+            } catch (Exception e) {
+                connected = false;
+                if (stopped) {
+                    return;
+                }
+                LOGGER.warn("Binlog change capture could not connect ({}), polling meanwhile; retrying in {} ms", e.getMessage(), backoff);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void handleEvent(Event event, Runnable onChange) {
+        EventType type = event.getHeader().getEventType();
+        if (type == EventType.TABLE_MAP) {
+            TableMapEventData data = event.getData();
+            if ((database == null || database.equalsIgnoreCase(data.getDatabase())) && tables.contains(data.getTable())) {
+                tableIds.put(data.getTableId(), data.getTable());
+            } else {
+                tableIds.remove(data.getTableId());
+            }
+        } else if (type == EventType.ROTATE) {
+            RotateEventData data = event.getData();
+            LOGGER.debug("Binlog rotated to {}:{}", data.getBinlogFilename(), data.getBinlogPosition());
+            checkpoint();
+        } else if (EventType.isWrite(type)) {
+            WriteRowsEventData data = event.getData();
+            notifyIfWatched(data.getTableId(), onChange);
+        } else if (EventType.isUpdate(type)) {
+            // outbox updates are the watcher's own claims and acknowledgements, only inserts are new work
+            UpdateRowsEventData data = event.getData();
+            if (!OUTBOX_TABLE.equalsIgnoreCase(tableIds.get(data.getTableId()))) {
+                notifyIfWatched(data.getTableId(), onChange);
+            }
+        }
+    }
+
+    private void notifyIfWatched(long tableId, Runnable onChange) {
+        if (!tableIds.containsKey(tableId)) {
+            return;
+        }
+        events.incrementAndGet();
+        onChange.run();
+        if (System.currentTimeMillis() - lastCheckpoint > CHECKPOINT_INTERVAL_MILLIS) {
+            checkpoint();
+        }
+    }
+
+    private void checkpoint() {
+        String filename = client.getBinlogFilename();
+        if (filename != null) {
+            positionStore.save(new BinlogPositionStore.Position(filename, client.getBinlogPosition()));
+            lastCheckpoint = System.currentTimeMillis();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("connected", connected);
+        status.put("events", events.get());
+        status.put("binlog_file", client.getBinlogFilename());
+        status.put("binlog_position", client.getBinlogPosition());
+        return status;
+    }
+
+    public void stop() {
+        stopped = true;
+        try {
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+            if (thread != null) {
+                thread.interrupt();
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Error while stopping binlog change capture: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Persists the last processed binlog file and position so change capture resumes where it stopped.
+ * The file is replaced atomically on every save.
+ */
+public class BinlogPositionStore {
+
+    private static final Logger LOGGER = LogManager.getLogger(BinlogPositionStore.class);
+
+    private final Path file;
+
+    public record Position(String filename, long position) {
+    }
+
+    public BinlogPositionStore(Path file) {
+        this.file = file;
+    }
+
+    public Position load() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+            String filename = props.getProperty("filename");
+            String position = props.getProperty("position");
+            if (filename == null || position == null) {
+                return null;
+            }
+            return new Position(filename, Long.parseLong(position));
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Failed to read binlog position from {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    public void save(Position position) {
+        Properties props = new Properties();
+        props.setProperty("filename", position.filename());
+        props.setProperty("position", Long.toString(position.position()));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, "binlog checkpoint");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to store binlog position to {}: {}", file, e.getMessage());
+        }
+    }
+}
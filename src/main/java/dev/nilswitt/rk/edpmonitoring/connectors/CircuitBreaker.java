@@ -0,0 +1,130 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Closed/open/half-open circuit breaker.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the breaker opens and rejects calls for
+ * {@code openMillis}. It then lets {@code halfOpenCalls} trial calls through: one success closes it again,
+ * one failure reopens it. A threshold of 0 disables the breaker.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = LogManager.getLogger(CircuitBreaker.class);
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final int halfOpenCalls;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private int halfOpenInFlight = 0;
+    private long openedAt = 0;
+    private long lastTransition = System.currentTimeMillis();
+    private long transitions = 0;
+    private long rejected = 0;
+    private long failures = 0;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, int halfOpenCalls) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+    }
+
+    /**
+     * Reserve permission for one call. Every granted call must be followed by {@link #onSuccess()} or
+     * {@link #onFailure()}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (failureThreshold <= 0) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                rejected++;
+                return false;
+            }
+            transition(State.HALF_OPEN);
+            halfOpenInFlight = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenCalls) {
+                rejected++;
+                return false;
+            }
+            halfOpenInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a call would currently be let through, without reserving it.
+     */
+    public synchronized boolean isCallPermitted() {
+        return failureThreshold <= 0 || state != State.OPEN || System.currentTimeMillis() - openedAt >= openMillis;
+    }
+
+    /**
+     * Whether calls pass without restriction, i.e. the breaker is disabled or closed.
+     */
+    public synchronized boolean isClosed() {
+        return failureThreshold <= 0 || state == State.CLOSED;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        consecutiveFailures++;
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            openedAt = System.currentTimeMillis();
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State next) {
+        if (state == next) {
+            return;
+        }
+        if (next == State.OPEN) {
+            LOGGER.warn("Circuit '{}' {} -> OPEN after {} consecutive failure(s), rejecting calls for {} ms", name, state, consecutiveFailures, openMillis);
+        } else {
+            LOGGER.info("Circuit '{}' {} -> {}", name, state, next);
+        }
+        state = next;
+        transitions++;
+        lastTransition = System.currentTimeMillis();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", failureThreshold > 0);
+        status.put("state", state.name());
+        status.put("consecutive_failures", consecutiveFailures);
+        status.put("failures", failures);
+        status.put("rejected", rejected);
+        status.put("transitions", transitions);
+        status.put("last_transition", lastTransition);
+        return status;
+    }
+}
@@ -4,15 +4,20 @@ import dev.nilswitt.rk.edpmonitoring.Utilities;
 import dev.nilswitt.rk.edpmonitoring.enitites.Unit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import tools.jackson.databind.ObjectMapper;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
 
@@ -21,7 +26,10 @@ public class ConfigConnector {
     private static ConfigConnector instance = new ConfigConnector();
     private Properties props = new Properties();
     private HashMap<String, UUID> unitMapping = new HashMap<>();
+    private final HashMap<String, UUID> configuredUnitMapping = new HashMap<>();
     private HashMap<UUID, Unit> units = new HashMap<>();
+    private String unitCatalogETag;
+    private String unitCatalogLastModified;
 
     private MiniOConnector miniOConnector;
     private MariaDBConnector mariaDBConnector;
@@ -83,12 +91,13 @@ public class ConfigConnector {
             String unitApiId = props.getProperty("units." + key + ".api_id");
             String unitName = props.getProperty("units." + key + ".name");
             if (unitApiId != null && unitName != null) {
-                this.unitMapping.put(unitName, UUID.fromString(unitApiId));
+                this.configuredUnitMapping.put(unitName, UUID.fromString(unitApiId));
                 LOGGER.info("Loaded unit mapping: {} -> {}", unitName, unitApiId);
             } else {
                 LOGGER.warn("Incomplete unit mapping for key {}: api_id or name missing", key);
             }
         }
+        this.unitMapping.putAll(this.configuredUnitMapping);
         return props;
     }
 
@@ -118,6 +127,102 @@ public class ConfigConnector {
         return this.units;
     }
 
+    /**
+     * Snapshot of the API unit catalogue as stored in the local cache file.
+     */
+    public record UnitCatalogSnapshot(String etag, String lastModified, long fetchedAt, List<Unit> units) {
+    }
+
+    /**
+     * Units returned by {@link #refreshUnitCatalog()}. {@code fromCache} is set when the API could not be
+     * reached and the units come from an earlier fetch or the cache file, so they may be stale.
+     */
+    public record LoadedUnitCatalog(List<Unit> units, boolean fromCache) {
+    }
+
+    /**
+     * Load the API unit catalogue into {@link #getUnits()} and {@link #getUnitMappings()}.
+     * <p>
+     * The catalogue is revalidated with the ETag/Last-Modified of the previous response, so an unchanged
+     * catalogue costs a 304 instead of a full transfer. On a cold start the previous response is read from
+     * {@code api.units.cache_file}, and that file is rewritten after every full fetch. If the API cannot be
+     * reached the cached catalogue is used as is and flagged as such; without a cached catalogue the failure
+     * is rethrown.
+     *
+     * @return the units of the catalogue
+     */
+    public synchronized LoadedUnitCatalog refreshUnitCatalog() {
+        Path cacheFile = unitCatalogFile();
+        if (units.isEmpty() && cacheFile != null) {
+            loadUnitCatalogSnapshot(cacheFile);
+        }
+        try {
+            ApiConnector.UnitCatalog catalog = apiConnector.fetchUnitCatalog(unitCatalogETag, unitCatalogLastModified);
+            if (catalog == null) {
+                LOGGER.info("Unit catalogue not modified, using {} cached unit(s)", units.size());
+                return new LoadedUnitCatalog(new ArrayList<>(units.values()), false);
+            }
+            units.clear();
+            unitMapping.clear();
+            unitMapping.putAll(configuredUnitMapping);
+            applyUnitCatalog(catalog.units());
+            unitCatalogETag = catalog.etag();
+            unitCatalogLastModified = catalog.lastModified();
+            if (cacheFile != null) {
+                saveUnitCatalogSnapshot(cacheFile, new UnitCatalogSnapshot(catalog.etag(), catalog.lastModified(), System.currentTimeMillis(), catalog.units()));
+            }
+            return new LoadedUnitCatalog(catalog.units(), false);
+        } catch (RuntimeException e) {
+            if (units.isEmpty()) {
+                throw e;
+            }
+            LOGGER.error("Failed to fetch the unit catalogue, using {} cached unit(s): {}", units.size(), e.getMessage(), e);
+            return new LoadedUnitCatalog(new ArrayList<>(units.values()), true);
+        }
+    }
+
+    private void applyUnitCatalog(List<Unit> catalog) {
+        for (Unit unit : catalog) {
+            unitMapping.put(unit.getName(), unit.getId());
+            units.put(unit.getId(), unit);
+        }
+    }
+
+    private Path unitCatalogFile() {
+        String file = getConfigValue("api.units.cache_file", "API_UNITS_CACHE_FILE", "units-cache.json");
+        return file.isBlank() ? null : Paths.get(Utilities.getCurrentWorkingDirectory().toString(), file);
+    }
+
+    private void loadUnitCatalogSnapshot(Path file) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            UnitCatalogSnapshot snapshot = new ObjectMapper().readValue(in, UnitCatalogSnapshot.class);
+            for (Unit unit : snapshot.units()) {
+                unit.clearChanges();
+            }
+            applyUnitCatalog(snapshot.units());
+            unitCatalogETag = snapshot.etag();
+            unitCatalogLastModified = snapshot.lastModified();
+            LOGGER.info("Loaded {} cached unit(s) from {}", snapshot.units().size(), file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read unit catalogue cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void saveUnitCatalogSnapshot(Path file, UnitCatalogSnapshot snapshot) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                new ObjectMapper().writeValue(out, snapshot);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to write unit catalogue cache {}: {}", file, e.getMessage());
+        }
+    }
+
     public MiniOConnector getMiniOConnector() {
         return miniOConnector;
     }
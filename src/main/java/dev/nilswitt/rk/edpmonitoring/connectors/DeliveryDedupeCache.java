@@ -0,0 +1,90 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently delivered correlation ids, so a row that is delivered again (after a retry whose ack
+ * was lost, or by an overlapping instance) is skipped before any HTTP call.
+ * <p>
+ * Entries expire {@code ttlMillis} after delivery, and the oldest entry is dropped once {@code maxEntries}
+ * is reached. Since ids are only added, insertion order equals expiry order, so expired entries are
+ * trimmed from the head.
+ */
+public class DeliveryDedupeCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Long> delivered;
+    private long lookups = 0;
+    private long hits = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    public DeliveryDedupeCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.delivered = new LinkedHashMap<>(Math.min(maxEntries, 1024) * 2) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > DeliveryDedupeCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlMillis > 0;
+    }
+
+    /**
+     * Whether the id was delivered within the TTL.
+     */
+    public synchronized boolean contains(String correlationId) {
+        if (!isEnabled() || correlationId == null) {
+            return false;
+        }
+        lookups++;
+        expire(System.currentTimeMillis());
+        if (delivered.containsKey(correlationId)) {
+            hits++;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void record(String correlationId) {
+        if (!isEnabled() || correlationId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        expire(now);
+        delivered.remove(correlationId);
+        delivered.put(correlationId, now + ttlMillis);
+    }
+
+    private void expire(long now) {
+        Iterator<Long> expiries = delivered.values().iterator();
+        while (expiries.hasNext() && expiries.next() <= now) {
+            expiries.remove();
+            expirations++;
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("size", delivered.size());
+        stats.put("lookups", lookups);
+        stats.put("hits", hits);
+        stats.put("hit_rate", lookups > 0 ? Math.round(hits * 1000.0 / lookups) / 1000.0 : 0);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        return stats;
+    }
+}
@@ -4,6 +4,8 @@ package dev.nilswitt.rk.edpmonitoring.connectors;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
@@ -33,4 +35,15 @@ public class GPGConnector {
         }
         log.info("File encrypted successfully: {}", outputFilePath);
     }
+
+    /**
+     * Encrypt a stream for the given public key. Unlike the file variant, failures are thrown so a streaming
+     * caller can abort instead of storing an incomplete result. Neither stream is closed.
+     */
+    public static void encrypt(String publicKeyPath, InputStream plaintext, OutputStream ciphertext) throws IOException {
+        try (InputStream cert = new FileInputStream(publicKeyPath)) {
+            new SOPImpl().encrypt().withCert(cert).plaintext(plaintext).writeTo(ciphertext);
+        }
+        ciphertext.flush();
+    }
 }
@@ -0,0 +1,83 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.ConnectionPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OkHttp event listener counting how often calls reuse a pooled connection versus open a new one.
+ * Every connection acquisition without a preceding connect is a pool hit.
+ */
+public class HttpClientMetrics extends EventListener {
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong failedConnects = new AtomicLong();
+    private final AtomicLong tlsHandshakes = new AtomicLong();
+    private final AtomicLong http2Connections = new AtomicLong();
+
+    @Override
+    public void callStart(Call call) {
+        calls.incrementAndGet();
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        failedCalls.incrementAndGet();
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connects.incrementAndGet();
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+        failedConnects.incrementAndGet();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tlsHandshakes.incrementAndGet();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        if (protocol == Protocol.HTTP_2) {
+            http2Connections.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        connectionsAcquired.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats(ConnectionPool pool) {
+        Map<String, Object> stats = new HashMap<>();
+        long acquired = connectionsAcquired.get();
+        long opened = connects.get() - failedConnects.get();
+        stats.put("calls", calls.get());
+        stats.put("failed_calls", failedCalls.get());
+        stats.put("pool_hits", Math.max(0, acquired - opened));
+        stats.put("pool_misses", opened);
+        stats.put("failed_connects", failedConnects.get());
+        stats.put("tls_handshakes", tlsHandshakes.get());
+        stats.put("http2_connections", http2Connections.get());
+        stats.put("pool_connections", pool.connectionCount());
+        stats.put("pool_idle_connections", pool.idleConnectionCount());
+        return stats;
+    }
+}
@@ -0,0 +1,272 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small bounded JDBC connection pool used by {@link MariaDBConnector}.
+ * <p>
+ * Connections handed out by {@link #getConnection()} are proxies; calling {@code close()} returns the
+ * physical connection to the pool instead of closing it. Idle connections are validated on checkout and
+ * evicted after {@code maxIdleMillis}. Failed connects are retried with exponential backoff.
+ */
+public class MariaDBConnectionPool implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(MariaDBConnectionPool.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final long acquireTimeoutMillis;
+    private final int connectRetries;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mariadb-pool-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    private record IdleConnection(Connection connection, long idleSince) {
+    }
+
+    public MariaDBConnectionPool(String url, String user, String pass, int maxSize, long maxIdleMillis, long acquireTimeoutMillis, int connectRetries) {
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.maxSize = Math.max(1, maxSize);
+        this.maxIdleMillis = maxIdleMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.connectRetries = Math.max(0, connectRetries);
+        this.permits = new Semaphore(this.maxSize, true);
+
+        long evictionPeriod = Math.max(1_000, maxIdleMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool. The returned connection must be closed to give it back.
+     *
+     * @throws SQLException if no permit is available within the acquire timeout or no connection can be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed.get()) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        Connection physical;
+        try {
+            physical = takeIdle();
+            if (physical == null) {
+                physical = openWithBackoff();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        acquired.incrementAndGet();
+        active.incrementAndGet();
+        return wrap(physical);
+    }
+
+    private Connection takeIdle() {
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (isUsable(candidate.connection())) {
+                return candidate.connection();
+            }
+            validationFailures.incrementAndGet();
+            closeQuietly(candidate.connection());
+        }
+        return null;
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection openWithBackoff() throws SQLException {
+        long backoff = 500;
+        SQLException last = null;
+        for (int attempt = 0; attempt <= connectRetries; attempt++) {
+            try {
+                Connection connection = DriverManager.getConnection(url, user, pass);
+                created.incrementAndGet();
+                if (attempt > 0) {
+                    LOGGER.info("Reconnected to MariaDB after {} attempt(s)", attempt + 1);
+                }
+                return connection;
+            } catch (SQLException e) {
+                last = e;
+                connectFailures.incrementAndGet();
+                if (attempt == connectRetries || closed.get()) {
+                    break;
+                }
+                LOGGER.warn("Connecting to MariaDB failed ({}); retrying in {} ms", e.getMessage(), backoff);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        throw last != null ? last : new SQLException("Could not open database connection");
+    }
+
+    private void release(Connection physical) {
+        active.decrementAndGet();
+        try {
+            if (closed.get() || physical.isClosed()) {
+                closeQuietly(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            idle.offerFirst(new IdleConnection(physical, System.currentTimeMillis()));
+        } catch (SQLException e) {
+            LOGGER.debug("Dropping broken connection on release: {}", e.getMessage());
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        // Object methods work after release; each handle is only equal to itself
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "PooledConnection[" + physical + (released.get() ? ", released]" : "]");
+                        case "close":
+                            if (released.compareAndSet(false, true)) {
+                                release(physical);
+                            }
+                            return null;
+                        case "isClosed":
+                            return released.get() || physical.isClosed();
+                        case "unwrap":
+                        case "isWrapperFor":
+                            break;
+                        default:
+                            if (released.get()) {
+                                throw new SQLException("Connection has already been returned to the pool");
+                            }
+                    }
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - maxIdleMillis;
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            IdleConnection candidate = it.next();
+            if (candidate.idleSince() < cutoff && idle.remove(candidate)) {
+                evicted.incrementAndGet();
+                closeQuietly(candidate.connection());
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = acquired.get();
+        stats.put("max_size", maxSize);
+        stats.put("active", active.get());
+        stats.put("idle", idle.size());
+        stats.put("waiting", permits.getQueueLength());
+        stats.put("acquired", count);
+        stats.put("created", created.get());
+        stats.put("evicted", evicted.get());
+        stats.put("validation_failures", validationFailures.get());
+        stats.put("connect_failures", connectFailures.get());
+        stats.put("avg_wait_ms", count == 0 ? 0.0 : totalWaitNanos.get() / 1_000_000.0 / count);
+        stats.put("max_wait_ms", maxWaitNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        evictor.shutdownNow();
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            closeQuietly(candidate.connection());
+        }
+        LOGGER.info("MariaDB connection pool closed");
+    }
+}
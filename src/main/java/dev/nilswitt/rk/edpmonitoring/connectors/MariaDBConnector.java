@@ -1,37 +1,68 @@
 package dev.nilswitt.rk.edpmonitoring.connectors;
 
-import dev.nilswitt.rk.edpmonitoring.enitites.Position;
-import dev.nilswitt.rk.edpmonitoring.enitites.Unit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-public class MariaDBConnector {
+public final class MariaDBConnector {
 
     private static final Logger LOGGER = LogManager.getLogger(MariaDBConnector.class);
+    private static final String CLAIM_LOCK = "webhook_outbox_claim";
+    private static final String NOT_SENDING_ELSEWHERE = "NOT EXISTS(SELECT 1 FROM webhook_outbox s " +
+            "WHERE s.pk = o.pk AND s.status = 'SENDING' AND s.claimed_by <> ?)";
 
     String url;
     String user;
     String pass;
 
+    private final MariaDBConnectionPool pool;
+    private final UnitSnapshot unitSnapshot;
+    private int outboxBatchSize = 500;
+    private int outboxFetchSize = 100;
+    private String instanceId = defaultInstanceId();
+    private int leaseSeconds = 300;
+    private int retryMaxAttempts = 5;
+    private int retryBaseDelaySeconds = 5;
+    private int retryMaxDelaySeconds = 600;
+
 
     public MariaDBConnector(String url, String user, String pass) {
-        this.url = url;
+        this.url = withPreparedStatementCache(url, 250);
         this.user = user;
         this.pass = pass;
+        this.pool = new MariaDBConnectionPool(this.url, user, pass, 4, 300_000, 5_000, 5);
+        this.unitSnapshot = new UnitSnapshot(this);
     }
     public MariaDBConnector(ConfigConnector configConnector) {
         String url = configConnector.getConfigValue("db.url", "DB_URL", "jdbc:mariadb://localhost:3306/edp_monitoring");
         String user = configConnector.getConfigValue("db.user", "DB_USER", "edp_user");
         String pass = configConnector.getConfigValue("db.password", "DB_PASSWORD", "edp_password");
+        int poolSize = Integer.parseInt(configConnector.getConfigValue("db.pool.max_size", "DB_POOL_MAX_SIZE", "4"));
+        long maxIdle = Long.parseLong(configConnector.getConfigValue("db.pool.max_idle_seconds", "DB_POOL_MAX_IDLE_SECONDS", "300")) * 1000;
+        long acquireTimeout = Long.parseLong(configConnector.getConfigValue("db.pool.acquire_timeout_ms", "DB_POOL_ACQUIRE_TIMEOUT_MS", "5000"));
+        int connectRetries = Integer.parseInt(configConnector.getConfigValue("db.pool.connect_retries", "DB_POOL_CONNECT_RETRIES", "5"));
+        int stmtCacheSize = Integer.parseInt(configConnector.getConfigValue("db.pool.prep_stmt_cache_size", "DB_POOL_PREP_STMT_CACHE_SIZE", "250"));
 
-        this.url = url;
+        this.url = withPreparedStatementCache(url, stmtCacheSize);
         this.user = user;
         this.pass = pass;
-        LOGGER.info("Using DB URL: {} (user={})", url, user);
+        this.pool = new MariaDBConnectionPool(this.url, user, pass, poolSize, maxIdle, acquireTimeout, connectRetries);
+        this.outboxBatchSize = Integer.parseInt(configConnector.getConfigValue("db.outbox.batch_size", "DB_OUTBOX_BATCH_SIZE", "500"));
+        this.outboxFetchSize = Integer.parseInt(configConnector.getConfigValue("db.outbox.fetch_size", "DB_OUTBOX_FETCH_SIZE", "100"));
+        this.instanceId = configConnector.getConfigValue("db.outbox.instance_id", "DB_OUTBOX_INSTANCE_ID", defaultInstanceId());
+        this.leaseSeconds = Integer.parseInt(configConnector.getConfigValue("db.outbox.lease_seconds", "DB_OUTBOX_LEASE_SECONDS", "300"));
+        this.retryMaxAttempts = Integer.parseInt(configConnector.getConfigValue("db.outbox.retry.max_attempts", "DB_OUTBOX_RETRY_MAX_ATTEMPTS", "5"));
+        this.retryBaseDelaySeconds = Integer.parseInt(configConnector.getConfigValue("db.outbox.retry.base_delay_seconds", "DB_OUTBOX_RETRY_BASE_DELAY_SECONDS", "5"));
+        this.retryMaxDelaySeconds = Integer.parseInt(configConnector.getConfigValue("db.outbox.retry.max_delay_seconds", "DB_OUTBOX_RETRY_MAX_DELAY_SECONDS", "600"));
+        LOGGER.info("Using DB URL: {} (user={}, pool size={}, instance={})", url, user, poolSize, instanceId);
 
         if (this.testConnection()) {
             LOGGER.info("Database connection test successful.");
@@ -39,29 +70,404 @@ public class MariaDBConnector {
             LOGGER.error("Database connection test failed. Exiting.");
             System.exit(1);
         }
+        Runtime.getRuntime().addShutdownHook(new Thread(pool::close));
+        this.unitSnapshot = new UnitSnapshot(this);
+    }
+
+    private static String defaultInstanceId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "edp-monitoring";
+        }
+    }
+
+    /**
+     * Enable server-side prepared statements and the driver's per-connection statement cache, so that
+     * statements prepared on a pooled connection are reused instead of re-parsed on every call.
+     */
+    private static String withPreparedStatementCache(String url, int cacheSize) {
+        if (url.contains("useServerPrepStmts") || cacheSize <= 0) {
+            return url;
+        }
+        String separator = url.contains("?") ? "&" : "?";
+        return url + separator + "useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=" + cacheSize;
+    }
+
+    public Map<String, Object> getPoolStats() {
+        return pool.getStats();
+    }
+
+    public void close() {
+        pool.close();
+    }
+
+    public int getLeaseSeconds() {
+        return leaseSeconds;
+    }
+
+    /**
+     * Atomically claim up to {@code limit} NEW outbox rows with {@code id > afterId} for this instance.
+     * <p>
+     * Rows are selected with {@code FOR UPDATE SKIP LOCKED}, so concurrent instances never see the same
+     * row, and are moved to SENDING with this instance as owner and a lease that expires after
+     * {@code leaseSeconds}. Requires MariaDB 10.6 or newer.
+     * <p>
+     * To keep the order of a unit's updates across instances, rows are skipped while another instance has
+     * a SENDING row of the same pk; they are claimed by a later cycle once that row is done.
+     */
+    public ArrayList<WorkerOutbox> claimWorkerOutbox(int afterId, int limit) {
+        String select = "SELECT id,pk,payload,created_at,status,correlation_id FROM webhook_outbox o " +
+                "WHERE status = 'NEW' AND next_retry_at IS NULL AND id > ? AND " + NOT_SENDING_ELSEWHERE +
+                " ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+        return claim(select, false, afterId, instanceId, limit);
+    }
+
+    /**
+     * Claim up to {@code limit} rows whose retry time has come, oldest due first. Served from the
+     * (status, next_retry_at) prefix of {@code idx_outbox_status_retry}.
+     * <p>
+     * Newer rows of the same unit are delivered while a retry waits, so a retry whose pk already has a newer
+     * NEW, SENDING, SENT or SPOOLED row would overwrite a newer status. Such rows are marked SUPERSEDED instead of
+     * being claimed (looked up through {@code idx_outbox_pk}).
+     */
+    public ArrayList<WorkerOutbox> claimDueRetries(int limit) {
+        String select = "SELECT id,pk,payload,created_at,status,correlation_id," +
+                "EXISTS(SELECT 1 FROM webhook_outbox n WHERE n.pk = o.pk AND n.id > o.id AND n.status IN ('NEW','SENDING','SENT','SPOOLED')) " +
+                "FROM webhook_outbox o " +
+                "WHERE status = 'NEW' AND next_retry_at <= CURRENT_TIMESTAMP AND " + NOT_SENDING_ELSEWHERE +
+                " ORDER BY next_retry_at, id LIMIT ? FOR UPDATE SKIP LOCKED";
+        return claim(select, true, instanceId, limit);
+    }
+
+    /**
+     * Claims hold the named lock {@value #CLAIM_LOCK} for the length of their transaction. Without it, two
+     * instances claiming at the same time could each take a row of the same pk, as neither sees the
+     * other's rows in SENDING before it commits.
+     */
+    private ArrayList<WorkerOutbox> claim(String select, boolean dropSuperseded, Object... params) {
+        ArrayList<WorkerOutbox> claimed = new ArrayList<>();
+        List<Integer> superseded = new ArrayList<>();
+        try (Connection conn = pool.getConnection()) {
+            if (!namedLock(conn, "SELECT GET_LOCK(?, 5)")) {
+                LOGGER.warn("Timed out waiting for the outbox claim lock, retrying on next poll");
+                return claimed;
+            }
+            try {
+                claimLocked(conn, select, dropSuperseded, params, claimed, superseded);
+            } finally {
+                namedLock(conn, "SELECT RELEASE_LOCK(?)");
+            }
+            if (!superseded.isEmpty()) {
+                LOGGER.info("Dropped {} outbox retry row(s) superseded by newer rows of the same unit", superseded.size());
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Database error while claiming outbox rows, retrying on next poll: {}", e.getMessage(), e);
+            claimed.clear();
+        }
+        return claimed;
+    }
+
+    private static boolean namedLock(Connection conn, String query) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, CLAIM_LOCK);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
     }
 
-    public void removeFromOutbox(int id) {
-        try (Connection conn = DriverManager.getConnection(url, user, pass)) {
-            if (conn != null) {
-                String deleteQuery = "DELETE FROM webhook_outbox WHERE id = ?";
-                try (PreparedStatement myStmt = conn.prepareStatement(deleteQuery)) {
-                    myStmt.setInt(1, id);
-                    int rowsAffected = myStmt.executeUpdate();
-                    LOGGER.info("Removed {} row(s) from outbox with id={}", rowsAffected, id);
+    private void claimLocked(Connection conn, String select, boolean dropSuperseded, Object[] params,
+                             List<WorkerOutbox> claimed, List<Integer> superseded) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement(select)) {
+                stmt.setFetchSize(outboxFetchSize);
+                for (int i = 0; i < params.length; i++) {
+                    stmt.setObject(i + 1, params[i]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (dropSuperseded && rs.getBoolean(7)) {
+                            superseded.add(rs.getInt(1));
+                        } else {
+                            claimed.add(readWorkerOutbox(rs));
+                        }
+                    }
+                }
+            }
+            if (!superseded.isEmpty()) {
+                String update = "UPDATE webhook_outbox SET status = 'SUPERSEDED', next_retry_at = NULL, sent_at = CURRENT_TIMESTAMP " +
+                        "WHERE id IN (" + placeholders(superseded.size()) + ")";
+                try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                    for (int i = 0; i < superseded.size(); i++) {
+                        stmt.setInt(i + 1, superseded.get(i));
+                    }
+                    stmt.executeUpdate();
+                }
+            }
+            if (!claimed.isEmpty()) {
+                String update = "UPDATE webhook_outbox SET status = 'SENDING', claimed_by = ?, next_retry_at = NULL, " +
+                        "lease_until = CURRENT_TIMESTAMP + INTERVAL ? SECOND WHERE id IN (" + placeholders(claimed.size()) + ")";
+                try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                    stmt.setString(1, instanceId);
+                    stmt.setInt(2, leaseSeconds);
+                    for (int i = 0; i < claimed.size(); i++) {
+                        stmt.setInt(i + 3, claimed.get(i).id);
+                    }
+                    stmt.executeUpdate();
                 }
             }
+            conn.commit();
         } catch (SQLException e) {
-            LOGGER.error("Connection test failed: {}", e.getMessage(), e);
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Extend the lease of rows this instance is still sending, so a batch that runs longer than
+     * {@code leaseSeconds} is not recovered and sent again by another instance.
+     *
+     * @return number of rows whose lease was extended
+     */
+    public int renewOutboxLease(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String query = "UPDATE webhook_outbox SET lease_until = CURRENT_TIMESTAMP + INTERVAL ? SECOND " +
+                "WHERE status = 'SENDING' AND claimed_by = ? AND id IN (" + placeholders(ids.size()) + ")";
+        return executeBatchUpdate("renew lease of", query, ids, leaseSeconds, instanceId);
+    }
+
+    /**
+     * Mark a batch of outbox rows claimed by this instance as delivered in a single statement.
+     */
+    public int markOutboxSent(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String query = "UPDATE webhook_outbox SET status = 'SENT', sent_at = CURRENT_TIMESTAMP, attempts = attempts + 1, " +
+                "claimed_by = NULL, lease_until = NULL WHERE claimed_by = ? AND id IN (" + placeholders(ids.size()) + ")";
+        return executeBatchUpdate("mark sent", query, ids, instanceId);
+    }
+
+    /**
+     * Return rows claimed by this instance to NEW without counting an attempt, for rows whose call was
+     * rejected by the rate limiter or circuit breaker before it reached the API.
+     */
+    public int releaseOutboxRows(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String query = "UPDATE webhook_outbox SET status = 'NEW', claimed_by = NULL, lease_until = NULL " +
+                "WHERE claimed_by = ? AND id IN (" + placeholders(ids.size()) + ")";
+        return executeBatchUpdate("release", query, ids, instanceId);
+    }
+
+    /**
+     * Record a failed delivery for a batch of rows claimed by this instance in a single statement.
+     * <p>
+     * Rows that still have attempts left go back to NEW with {@code next_retry_at} set to
+     * {@code min(base * 2^attempts, max)} seconds from now, scaled by a random factor in [0.5, 1) per row so
+     * that rows failing together do not retry together. Rows that reach {@code retryMaxAttempts} are moved to
+     * FAILED (dead letter). MariaDB evaluates single-table UPDATE assignments left to right, so
+     * {@code attempts} is incremented last and the expressions before it still see the old value.
+     *
+     * @return number of rows updated
+     */
+    public int markOutboxFailed(List<Integer> ids, String error) {
+        if (ids.isEmpty()) {
+            return 0;
         }
+        String query = "UPDATE webhook_outbox SET " +
+                "status = IF(attempts + 1 >= ?, 'FAILED', 'NEW'), " +
+                "next_retry_at = IF(attempts + 1 >= ?, NULL, CURRENT_TIMESTAMP + INTERVAL " +
+                "CEIL(LEAST(? * POW(2, attempts), ?) * (0.5 + RAND() / 2)) SECOND), " +
+                "last_error = ?, claimed_by = NULL, lease_until = NULL, attempts = attempts + 1 " +
+                "WHERE claimed_by = ? AND id IN (" + placeholders(ids.size()) + ")";
+        return executeBatchUpdate("mark failed", query, ids,
+                retryMaxAttempts, retryMaxAttempts, retryBaseDelaySeconds, retryMaxDelaySeconds, error, instanceId);
+    }
+
+    /**
+     * Number of dead-lettered (FAILED) outbox rows.
+     */
+    public int countDeadLetters() {
+        String query = "SELECT COUNT(*) FROM webhook_outbox WHERE status = 'FAILED'";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            LOGGER.error("Failed to count dead-lettered outbox rows: {}", e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Most recent dead-lettered outbox rows, newest first.
+     */
+    public ArrayList<DeadLetter> getDeadLetters(int limit) {
+        String query = "SELECT id,pk,payload,created_at,attempts,last_error,correlation_id FROM webhook_outbox " +
+                "WHERE status = 'FAILED' ORDER BY id DESC LIMIT ?";
+        ArrayList<DeadLetter> deadLetters = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setInt(1, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    deadLetters.add(new DeadLetter(
+                            rs.getInt(1),
+                            rs.getString(2),
+                            rs.getString(3),
+                            rs.getTimestamp(4),
+                            rs.getInt(5),
+                            rs.getString(6),
+                            rs.getString(7)
+                    ));
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Failed to read dead-lettered outbox rows: {}", e.getMessage(), e);
+        }
+        return deadLetters;
+    }
+
+    /**
+     * Acknowledge rows claimed by this instance into the local spool. SPOOLED rows are kept by retention until
+     * the spool has delivered, superseded or dead-lettered them.
+     */
+    public int markOutboxSpooled(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String query = "UPDATE webhook_outbox SET status = 'SPOOLED', claimed_by = NULL, lease_until = NULL " +
+                "WHERE claimed_by = ? AND id IN (" + placeholders(ids.size()) + ")";
+        return executeBatchUpdate("mark spooled", query, ids, instanceId);
+    }
+
+    /**
+     * Move SPOOLED rows to their final status once the spool is done with them: SENT, SUPERSEDED or FAILED.
+     * A FAILED row shows up next to the other dead letters and can be requeued the same way.
+     *
+     * @param error stored as last_error, null for SENT and SUPERSEDED
+     */
+    public int finishSpooledOutbox(List<Integer> ids, String status, String error) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String query = "UPDATE webhook_outbox SET status = ?, last_error = ?, next_retry_at = NULL, " +
+                "sent_at = IF(? = 'FAILED', NULL, CURRENT_TIMESTAMP), attempts = attempts + IF(? = 'SUPERSEDED', 0, 1) " +
+                "WHERE status = 'SPOOLED' AND id IN (" + placeholders(ids.size()) + ")";
+        int updated = executeBatchUpdate("finish spooled", query, ids, status, error, status, status);
+        if (updated < ids.size()) {
+            LOGGER.warn("Only {} of {} spooled outbox row(s) were still SPOOLED when marking them {}", updated, ids.size(), status);
+        }
+        return updated;
+    }
+
+    /**
+     * Return rows left in SENDING by a previous run of this instance (e.g. after a crash) to NEW so they are
+     * picked up again. Rows claimed by other instances are left to {@link #recoverExpiredLeases()}.
+     */
+    public int resetSendingOutbox() {
+        String query = "UPDATE webhook_outbox SET status = 'NEW', claimed_by = NULL, lease_until = NULL " +
+                "WHERE status = 'SENDING' AND claimed_by = ?";
+        return executeUpdate("reset own SENDING", query, instanceId);
+    }
+
+    /**
+     * Return SENDING rows whose lease has expired, e.g. because the owning instance died, to NEW.
+     */
+    public int recoverExpiredLeases() {
+        String query = "UPDATE webhook_outbox SET status = 'NEW', claimed_by = NULL, lease_until = NULL " +
+                "WHERE status = 'SENDING' AND lease_until < CURRENT_TIMESTAMP";
+        return executeUpdate("recover expired", query);
+    }
+
+    private int executeUpdate(String action, String query, Object... params) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.error("Failed to {} outbox rows: {}", action, e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Delete one chunk of at most {@code chunkSize} SENT or SUPERSEDED rows that were delivered more than
+     * {@code retentionSeconds} ago. Callers loop over chunks so each statement holds its row locks only
+     * briefly and the {@code einsatzmittel_webhook_au} trigger can keep inserting in between.
+     *
+     * @return number of rows deleted, or -1 on error
+     */
+    public int purgeSentOutboxChunk(long retentionSeconds, int chunkSize) {
+        String query = "DELETE FROM webhook_outbox WHERE status IN ('SENT','SUPERSEDED') AND sent_at < CURRENT_TIMESTAMP - INTERVAL ? SECOND ORDER BY id LIMIT ?";
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setLong(1, retentionSeconds);
+            stmt.setInt(2, chunkSize);
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.error("Failed to purge sent outbox rows: {}", e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Approximate row count and on-disk size of {@code webhook_outbox} from {@code information_schema}.
+     */
+    public Map<String, Object> getOutboxTableStats() {
+        String query = "SELECT TABLE_ROWS, DATA_LENGTH, INDEX_LENGTH, DATA_FREE FROM information_schema.TABLES " +
+                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'webhook_outbox'";
+        Map<String, Object> stats = new HashMap<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                stats.put("rows_estimate", rs.getLong(1));
+                stats.put("data_bytes", rs.getLong(2));
+                stats.put("index_bytes", rs.getLong(3));
+                stats.put("free_bytes", rs.getLong(4));
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Failed to read outbox table size: {}", e.getMessage(), e);
+        }
+        return stats;
+    }
+
+    private int executeBatchUpdate(String action, String query, List<Integer> ids, Object... leadingParams) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (int i = 0; i < leadingParams.length; i++) {
+                stmt.setObject(i + 1, leadingParams[i]);
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setInt(leadingParams.length + i + 1, ids.get(i));
+            }
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.error("Failed to {} {} outbox row(s): {}", action, ids.size(), e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
     }
 
     public boolean testConnection() {
         LOGGER.info("Connecting to MariaDB at " + url + " with user " + user);
-        try (Connection conn = DriverManager.getConnection(url, user, pass)) {
-            if (conn != null) {
+        try (Connection conn = pool.getConnection()) {
+            if (conn.isValid(2)) {
                 LOGGER.info("Connection to MariaDB established successfully.");
-                conn.close();
                 return true;
             } else {
                 LOGGER.error("Failed to establish connection to MariaDB.");
@@ -73,75 +479,67 @@ public class MariaDBConnector {
         }
     }
 
-    public ArrayList<WorkerOutbox> getWorkerOutbox() {
+    public int getOutboxBatchSize() {
+        return outboxBatchSize;
+    }
 
-        String query = "SELECT id,pk,payload,created_at,status,correlation_id FROM webhook_outbox WHERE status = 'NEW'";
-        ArrayList<WorkerOutbox> outbox = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(url, user, pass);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
+    private WorkerOutbox readWorkerOutbox(ResultSet rs) throws SQLException {
+        return new WorkerOutbox(
+                rs.getInt(1),
+                rs.getString(2),
+                rs.getString(3),
+                rs.getTimestamp(4),
+                rs.getString(5),
+                rs.getString(6)
+        );
+    }
 
-            ResultSetMetaData meta = rs.getMetaData();
-            int cols = meta.getColumnCount();
-            while (rs.next()) {
-                StringBuilder row = new StringBuilder();
-                for (int i = 1; i <= cols; i++) {
-                    Object val = rs.getObject(i);
-                    row.append(val != null ? val.toString() : "NULL");
-                    if (i < cols) row.append(" | ");
-                }
-                WorkerOutbox wo = new WorkerOutbox(
-                        rs.getInt("id"),
-                        rs.getString("pk"),
-                        rs.getString("payload"),
-                        rs.getTimestamp("created_at"),
-                        rs.getString("status"),
-                        rs.getString("correlation_id")
-                );
-                outbox.add(wo);
-            }
 
-        } catch (SQLException e) {
-            LOGGER.error("Database error: {}", e.getMessage(), e);
-            System.exit(2);
-        } catch (Exception e) {
-            LOGGER.error("Unexpected error: {}", e.getMessage(), e);
-            System.exit(3);
-        }
-        return outbox;
-    }
-
-
-    public HashSet<Unit> getUnits() {
-        HashSet<Unit> units = new HashSet<>();
-        String query = "SELECT RUFNAME,KOORDX,KOORDY,STATUS FROM einsatzmittel WHERE FREMDFAHRZEUG = 0";
-        ArrayList<WorkerOutbox> outbox = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(url, user, pass);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-
-            while (rs.next()) {
-                String name = rs.getString("RUFNAME");
-                Position lat = new Position(rs.getDouble("KOORDX"), rs.getDouble("KOORDY"));
-                int status = rs.getInt("STATUS");
-                Unit unit = new Unit(null, name.trim());
-                unit.setPosition(lat);
-                unit.setStatus(status);
-                LOGGER.info("Found unit: {}", name.trim());
-                units.add(unit);
+    /**
+     * Read einsatzmittel rows whose ZEITSTEMPEL is at or after {@code since} ({@code null} reads all rows).
+     * Foreign units are included with their flag so callers can drop units that became foreign.
+     *
+     * @return the changed rows, or {@code null} if the query failed
+     */
+    public ArrayList<UnitRow> getUnitsChangedSince(Timestamp since) {
+        String query = "SELECT RUFNAME,KOORDX,KOORDY,STATUS,ZEITSTEMPEL,FREMDFAHRZEUG FROM einsatzmittel" +
+                (since != null ? " WHERE ZEITSTEMPEL >= ?" : "");
+        ArrayList<UnitRow> rows = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            if (since != null) {
+                stmt.setTimestamp(1, since);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new UnitRow(
+                            rs.getString(1).trim(),
+                            rs.getDouble(2),
+                            rs.getDouble(3),
+                            rs.getInt(4),
+                            rs.getTimestamp(5),
+                            rs.getInt(6) != 0
+                    ));
+                }
             }
-
         } catch (SQLException e) {
-            LOGGER.error("Database error: {}", e.getMessage(), e);
-            System.exit(2);
-        } catch (Exception e) {
-            LOGGER.error("Unexpected error: {}", e.getMessage(), e);
-            System.exit(3);
+            LOGGER.error("Database error while reading changed units: {}", e.getMessage(), e);
+            return null;
         }
-        return units;
+        return rows;
+    }
+
+    public UnitSnapshot getUnitSnapshot() {
+        return unitSnapshot;
+    }
+
+    public record UnitRow(String name, double koordX, double koordY, int status, Timestamp changedAt, boolean foreign) {
+    }
+
+    public record DeadLetter(int id, String pk, String payload, Timestamp createdAt, int attempts, String lastError, String correlationId) {
     }
 
-    public class WorkerOutbox {
+    public static class WorkerOutbox {
         public int id;
         public String pk;
         public String payload;
@@ -1,15 +1,18 @@
 package dev.nilswitt.rk.edpmonitoring.connectors;
 
+import io.minio.GetObjectArgs;
 import io.minio.ListObjectsArgs;
 import io.minio.MinioClient;
-import io.minio.ObjectWriteResponse;
+import io.minio.MinioAsyncClient;
 import io.minio.Result;
 import io.minio.errors.*;
 import io.minio.messages.Item;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -17,13 +20,23 @@ import java.util.*;
 public class MiniOConnector implements StorageInterface {
     static Logger log = LogManager.getLogger(MiniOConnector.class);
     private final MinioClient minioClient;
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final long MAX_PART_SIZE = 1024L * 1024 * 1024;
+    private final MinioAsyncClient asyncClient;
     private final String bucketName;
+    private long partSize = 16L * 1024 * 1024;
+    private int uploadParallelism = 4;
+    private int partRetries = 3;
 
     public MiniOConnector(String endpoint, String bucket, String accessKey, String secretKey) {
         this.minioClient = MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
                 .build();
+        this.asyncClient = MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .build();
         this.bucketName = bucket;
     }
 
@@ -47,6 +60,9 @@ public class MiniOConnector implements StorageInterface {
             log.info("INFO MiniOConnector - id: {}, endpoint: {}, bucket: {}, access_key: {}, secret_key {}", id, endpoint, bucket, access_key, secret_key);
             if (id != null && access_key != null && secret_key != null && endpoint != null && bucket != null) {
                 MiniOConnector connector = new MiniOConnector(endpoint, bucket, access_key, secret_key);
+                connector.setPartSize(Long.parseLong(props.getProperty("s3.bucket." + bucketKey + ".part_size_mb", "16")) * 1024 * 1024);
+                connector.setUploadParallelism(Integer.parseInt(props.getProperty("s3.bucket." + bucketKey + ".upload_parallelism", "4")));
+                connector.setPartRetries(Integer.parseInt(props.getProperty("s3.bucket." + bucketKey + ".part_retries", "3")));
                 connectors.put(id, connector);
             } else {
                 log.warn("Skipping MiniOConnector for bucket key: {} due to missing configuration.", bucketKey);
@@ -69,25 +85,80 @@ public class MiniOConnector implements StorageInterface {
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
                 .build();
+        this.asyncClient = MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .build();
         this.bucketName = bucket;
     }
 
+    /**
+     * Upload a local file. The upload is resumable: if an earlier attempt for the same object name was
+     * interrupted, parts already stored are verified and skipped.
+     */
     @Override
     public void putFile(String objectName, String localPath) throws Exception {
-        ObjectWriteResponse res = minioClient.uploadObject(
-                io.minio.UploadObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .filename(localPath)
-                        .build()
-        );
-        log.info("File uploaded successfully: {} {}", objectName, res.object());
+        Map<String, Object> stats;
+        try (InputStream in = new FileInputStream(localPath)) {
+            stats = new ParallelMultipartUpload(asyncClient, bucketName, objectName, (int) partSize, uploadParallelism, partRetries)
+                    .upload(in, true);
+        }
+        log.info("File uploaded successfully: {} {}", objectName, stats);
+    }
+
+    /**
+     * Size of the parts of a multipart upload; up to {@code upload_parallelism} parts are buffered in memory.
+     * S3 requires at least 5 MiB per part and at most 10000 parts, so this also bounds the largest object.
+     */
+    public void setPartSize(long partSize) {
+        this.partSize = Math.min(MAX_PART_SIZE, Math.max(MIN_PART_SIZE, partSize));
+    }
+
+    public void setUploadParallelism(int uploadParallelism) {
+        this.uploadParallelism = Math.max(1, uploadParallelism);
+    }
+
+    public void setPartRetries(int partRetries) {
+        this.partRetries = Math.max(0, partRetries);
+    }
+
+    /**
+     * Upload a stream of unknown length. A stream cannot be replayed, so a failed upload is aborted rather
+     * than kept for resuming.
+     */
+    @Override
+    public Map<String, Object> putStream(String objectName, InputStream stream) throws Exception {
+        Map<String, Object> stats = new ParallelMultipartUpload(asyncClient, bucketName, objectName, (int) partSize, uploadParallelism, partRetries)
+                .upload(stream, false);
+        log.info("Stream uploaded successfully: {} {}", objectName, stats);
+        return stats;
+    }
+
+    @Override
+    public byte[] getBytes(String objectName) throws Exception {
+        try (InputStream in = minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(objectName).build())) {
+            return in.readAllBytes();
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
     }
 
     @Override
     public List<String> getFiles() {
+        return listFiles(ListObjectsArgs.builder().bucket(bucketName).build());
+    }
+
+    @Override
+    public List<String> getFiles(String prefix) {
+        return listFiles(ListObjectsArgs.builder().bucket(bucketName).prefix(prefix).recursive(true).build());
+    }
+
+    private List<String> listFiles(ListObjectsArgs args) {
         ArrayList<String> files = new ArrayList<>();
-        Iterable<Result<Item>> items = minioClient.listObjects(ListObjectsArgs.builder().bucket(bucketName).build());
+        Iterable<Result<Item>> items = minioClient.listObjects(args);
 
         items.forEach(item -> {
             try {
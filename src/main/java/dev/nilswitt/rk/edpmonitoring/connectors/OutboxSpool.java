@@ -0,0 +1,390 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only spool of outbox rows, so rows can be acknowledged in the database before the API has
+ * accepted them and replayed once it is reachable.
+ * <p>
+ * Rows are written to fixed-size, memory-mapped segment files {@code spool-<n>.seg}. Each record is
+ * {@code [int length][int crc32][body]}; a zero length marks the end of the written part, and a record whose
+ * checksum does not match is treated as the end of the segment, so a torn write after a crash is dropped
+ * rather than replayed. The read position is kept in {@code spool.cursor}, synced and replaced atomically on every
+ * commit. Segments behind the cursor are deleted, and rows superseded by a newer row for the same unit are
+ * skipped during replay.
+ */
+public class OutboxSpool implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(OutboxSpool.class);
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER_BYTES = 8;
+
+    private final Path dir;
+    private final Path cursorFile;
+    private final int segmentBytes;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final Map<String, Integer> latestIdByPk = new HashMap<>();
+    private final Set<Long> pendingDeletes = new TreeSet<>();
+    private long writeSeq;
+    private int writeOffset;
+    private long readSeq;
+    private int readOffset;
+    private long appended = 0;
+    private long replayed = 0;
+    private long superseded = 0;
+    private long corrupt = 0;
+
+    public record Entry(MariaDBConnector.WorkerOutbox row, int attempts) {
+    }
+
+    /**
+     * Rows read from the cursor on, the ids of rows skipped because a newer row of their unit is spooled, and
+     * the position to commit once they have been handled.
+     */
+    public record Batch(List<Entry> entries, List<Integer> superseded, long segment, int offset) {
+        public boolean isEmpty() {
+            return entries.isEmpty() && superseded.isEmpty();
+        }
+    }
+
+    public OutboxSpool(Path dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.cursorFile = dir.resolve("spool.cursor");
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        open();
+    }
+
+    private void open() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), map(file));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, map(segmentPath(0)));
+        }
+        writeSeq = segments.lastKey();
+        writeOffset = scanEnd(segments.lastEntry().getValue());
+
+        loadCursor();
+        if (!segments.containsKey(readSeq)) {
+            readSeq = segments.firstKey();
+            readOffset = 0;
+        }
+        // rebuild the superseded-row index from everything not yet replayed
+        Batch pending = read(Integer.MAX_VALUE, false);
+        for (Entry entry : pending.entries()) {
+            latestIdByPk.merge(entry.row().pk, entry.row().id, Math::max);
+        }
+        LOGGER.info("Opened outbox spool in {}: {} segment(s), {} pending row(s)", dir, segments.size(), pending.entries().size());
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    /**
+     * Offset behind the last intact record of a segment.
+     */
+    private int scanEnd(MappedByteBuffer buffer) {
+        int offset = 0;
+        int length;
+        while ((length = recordLength(buffer, offset)) > 0) {
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Body length of the record at {@code offset}, or 0 if there is no intact record there.
+     */
+    private int recordLength(MappedByteBuffer buffer, int offset) {
+        if (offset + HEADER_BYTES > buffer.capacity()) {
+            return 0;
+        }
+        int length = buffer.getInt(offset);
+        if (length == 0) {
+            return 0;
+        }
+        if (length < 0 || offset + HEADER_BYTES + length > buffer.capacity()) {
+            corrupt++;
+            LOGGER.warn("Spool record at offset {} has invalid length {}, ignoring the rest of the segment", offset, length);
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + HEADER_BYTES, length));
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            corrupt++;
+            LOGGER.warn("Spool record at offset {} fails its checksum, ignoring the rest of the segment", offset);
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * Append rows and force them to disk before returning, so the caller may acknowledge them afterwards.
+     */
+    public synchronized void append(List<MariaDBConnector.WorkerOutbox> rows) throws IOException {
+        for (MariaDBConnector.WorkerOutbox row : rows) {
+            write(row, 0);
+        }
+        segments.get(writeSeq).force();
+    }
+
+    /**
+     * Put entries that could not be delivered back at the end of the spool, with the attempt count each entry
+     * carries.
+     */
+    public synchronized void requeue(List<Entry> entries) throws IOException {
+        for (Entry entry : entries) {
+            write(entry.row(), entry.attempts());
+        }
+        segments.get(writeSeq).force();
+    }
+
+    private void write(MariaDBConnector.WorkerOutbox row, int attempts) throws IOException {
+        byte[] body = encode(row, attempts);
+        int size = HEADER_BYTES + body.length;
+        if (size > segmentBytes) {
+            throw new IOException("Outbox row " + row.id + " (" + size + " bytes) does not fit in a spool segment");
+        }
+        if (writeOffset + size > segmentBytes) {
+            roll();
+        }
+        MappedByteBuffer buffer = segments.get(writeSeq);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        buffer.put(writeOffset + HEADER_BYTES, body);
+        buffer.putInt(writeOffset + 4, (int) crc.getValue());
+        // the length goes last, a record only becomes visible once it is complete
+        buffer.putInt(writeOffset, body.length);
+        writeOffset += size;
+        latestIdByPk.merge(row.pk, row.id, Math::max);
+        appended++;
+    }
+
+    private void roll() throws IOException {
+        segments.get(writeSeq).force();
+        writeSeq++;
+        segments.put(writeSeq, map(segmentPath(writeSeq)));
+        writeOffset = 0;
+        LOGGER.debug("Rolled outbox spool to segment {}", writeSeq);
+    }
+
+    /**
+     * Read up to {@code max} rows from the cursor on without moving it. Rows superseded by a newer row for the
+     * same unit are skipped.
+     */
+    public synchronized Batch read(int max) {
+        return read(max, true);
+    }
+
+    private Batch read(int max, boolean skipSuperseded) {
+        List<Entry> entries = new ArrayList<>();
+        List<Integer> skipped = new ArrayList<>();
+        long seq = readSeq;
+        int offset = readOffset;
+        while (entries.size() < max) {
+            MappedByteBuffer buffer = segments.get(seq);
+            int length = offset < (seq == writeSeq ? writeOffset : segmentBytes) ? recordLength(buffer, offset) : 0;
+            if (length == 0) {
+                Long next = segments.higherKey(seq);
+                if (next == null) {
+                    break;
+                }
+                seq = next;
+                offset = 0;
+                continue;
+            }
+            Entry entry = decode(buffer, offset + HEADER_BYTES, length);
+            offset += HEADER_BYTES + length;
+            Integer latest = latestIdByPk.get(entry.row().pk);
+            if (skipSuperseded && latest != null && entry.row().id < latest) {
+                superseded++;
+                skipped.add(entry.row().id);
+                continue;
+            }
+            entries.add(entry);
+        }
+        return new Batch(entries, skipped, seq, offset);
+    }
+
+    /**
+     * Move the cursor behind a batch returned by {@link #read(int)} and delete segments it has left.
+     */
+    public synchronized void commit(Batch batch) {
+        readSeq = batch.segment();
+        readOffset = batch.offset();
+        replayed += batch.entries().size();
+        if (readSeq == writeSeq && readOffset >= writeOffset) {
+            latestIdByPk.clear();
+            if (writeOffset > segmentBytes / 2) {
+                try {
+                    roll();
+                    readSeq = writeSeq;
+                    readOffset = 0;
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to roll drained outbox spool: {}", e.getMessage());
+                }
+            }
+        }
+        saveCursor();
+        compact();
+    }
+
+    private void compact() {
+        // drop the mappings first, Windows refuses to delete a file while it is still mapped
+        for (Long seq : new ArrayList<>(segments.headMap(readSeq).keySet())) {
+            segments.remove(seq);
+            pendingDeletes.add(seq);
+        }
+        for (Iterator<Long> it = pendingDeletes.iterator(); it.hasNext(); ) {
+            long seq = it.next();
+            try {
+                Files.deleteIfExists(segmentPath(seq));
+                it.remove();
+                LOGGER.debug("Deleted replayed outbox spool segment {}", seq);
+            } catch (IOException e) {
+                // the mapping is only released once the buffer is collected; retried on the next commit
+                LOGGER.debug("Could not delete outbox spool segment {} yet: {}", seq, e.getMessage());
+            }
+        }
+    }
+
+    private void loadCursor() {
+        if (!Files.exists(cursorFile)) {
+            readSeq = segments.firstKey();
+            readOffset = 0;
+            return;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(cursorFile)) {
+            props.load(in);
+            readSeq = Long.parseLong(props.getProperty("segment", "0"));
+            readOffset = Integer.parseInt(props.getProperty("offset", "0"));
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Failed to read outbox spool cursor from {}, replaying from the oldest segment: {}", cursorFile, e.getMessage());
+            readSeq = segments.firstKey();
+            readOffset = 0;
+        }
+    }
+
+    private void saveCursor() {
+        Properties props = new Properties();
+        props.setProperty("segment", Long.toString(readSeq));
+        props.setProperty("offset", Integer.toString(readOffset));
+        Path tmp = cursorFile.resolveSibling(cursorFile.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                props.store(Channels.newOutputStream(channel), "outbox spool cursor");
+                // on disk before the rename, so a power loss cannot bring back an older cursor
+                channel.force(true);
+            }
+            Files.move(tmp, cursorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to store outbox spool cursor to {}: {}", cursorFile, e.getMessage());
+        }
+    }
+
+    private static byte[] encode(MariaDBConnector.WorkerOutbox row, int attempts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + (row.payload != null ? row.payload.length() : 0));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(row.id);
+            out.writeInt(attempts);
+            out.writeLong(row.createdAt != null ? row.createdAt.getTime() : -1);
+            writeString(out, row.pk);
+            writeString(out, row.payload);
+            writeString(out, row.status);
+            writeString(out, row.correlationId);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Entry decode(MappedByteBuffer buffer, int offset, int length) {
+        ByteBuffer body = buffer.slice(offset, length);
+        int id = body.getInt();
+        int attempts = body.getInt();
+        long createdAt = body.getLong();
+        String pk = readString(body);
+        String payload = readString(body);
+        String status = readString(body);
+        String correlationId = readString(body);
+        return new Entry(new MariaDBConnector.WorkerOutbox(id, pk, payload, createdAt >= 0 ? new Timestamp(createdAt) : null, status, correlationId), attempts);
+    }
+
+    private static String readString(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("segments", segments.size());
+        status.put("pending_bytes", (writeSeq - readSeq) * segmentBytes + writeOffset - readOffset);
+        status.put("appended", appended);
+        status.put("replayed", replayed);
+        status.put("superseded", superseded);
+        status.put("corrupt_records", corrupt);
+        return status;
+    }
+
+    @Override
+    public synchronized void close() {
+        MappedByteBuffer buffer = segments.get(writeSeq);
+        if (buffer != null) {
+            buffer.force();
+        }
+        saveCursor();
+    }
+}
@@ -0,0 +1,287 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.ListPartsResponse;
+import io.minio.MinioAsyncClient;
+import io.minio.PutObjectArgs;
+import io.minio.messages.ListMultipartUploadsResult;
+import io.minio.messages.Part;
+import io.minio.messages.Upload;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads one object from a stream as an S3 multipart upload with several parts in flight.
+ * <p>
+ * The stream is cut into {@code partSize} parts on the calling thread; at most {@code parallelism} parts
+ * are held in memory and uploaded concurrently. A failed part is retried on its own with exponential
+ * backoff. With {@code resumable} set, an unfinished upload of the same object is continued: parts whose
+ * size and MD5 match the ETag already stored are not sent again, and a failed upload is left in place for
+ * the next attempt instead of being aborted.
+ */
+class ParallelMultipartUpload {
+
+    private static final Logger LOGGER = LogManager.getLogger(ParallelMultipartUpload.class);
+    private static final int MAX_PARTS = 10000;
+    private static final long RETRY_BASE_DELAY_MS = 500;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final MinioAsyncClient client;
+    private final String bucket;
+    private final String objectName;
+    private final int partSize;
+    private final int parallelism;
+    private final int partRetries;
+    private final ConcurrentLinkedQueue<PartResult> results = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private Map<Integer, Part> existingParts = Map.of();
+
+    record PartResult(int partNumber, String etag, long bytes, long millis, int attempts, boolean resumed) {
+    }
+
+    ParallelMultipartUpload(MinioAsyncClient client, String bucket, String objectName, int partSize, int parallelism, int partRetries) {
+        this.client = client;
+        this.bucket = bucket;
+        this.objectName = objectName;
+        this.partSize = partSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.partRetries = Math.max(0, partRetries);
+    }
+
+    /**
+     * Upload the stream and return a summary of the upload, including per-part timing.
+     */
+    Map<String, Object> upload(InputStream stream, boolean resumable) throws Exception {
+        long start = System.nanoTime();
+        byte[] first = stream.readNBytes(partSize);
+        if (first.length < partSize) {
+            // fits into a single request, no multipart upload needed
+            client.putObject(PutObjectArgs.builder()
+                    .bucket(bucket)
+                    .object(objectName)
+                    .stream(new ByteArrayInputStream(first), first.length, -1)
+                    .build()).get();
+            results.add(new PartResult(1, null, first.length, (System.nanoTime() - start) / 1_000_000, 1, false));
+            return summary(start, null);
+        }
+
+        String uploadId = resumable ? findPendingUpload() : null;
+        if (uploadId != null) {
+            try {
+                existingParts = listParts(uploadId);
+                LOGGER.info("Resuming upload of {} ({} parts already stored)", objectName, existingParts.size());
+            } catch (Exception e) {
+                LOGGER.warn("Could not list parts of unfinished upload {} of {}, starting a new one: {}", uploadId, objectName, e.getMessage());
+                uploadId = null;
+            }
+        }
+        if (uploadId == null) {
+            uploadId = client.createMultipartUploadAsync(bucket, null, objectName, contentType(), noParams())
+                    .get().result().uploadId();
+        }
+
+        String id = uploadId;
+        Semaphore buffers = new Semaphore(parallelism);
+        List<Future<?>> parts = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "s3-upload-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            byte[] data = first;
+            int partNumber = 1;
+            while (data.length > 0 && failure.get() == null) {
+                if (partNumber > MAX_PARTS) {
+                    throw new IOException("Object " + objectName + " exceeds " + MAX_PARTS + " parts of " + partSize + " bytes");
+                }
+                byte[] part = data;
+                int number = partNumber;
+                parts.add(workers.submit(() -> {
+                    try {
+                        uploadPart(id, number, part);
+                    } finally {
+                        buffers.release();
+                    }
+                    return null;
+                }));
+                partNumber++;
+                buffers.acquire();
+                data = stream.readNBytes(partSize);
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        Exception error = failure.get();
+        if (error != null) {
+            if (!resumable) {
+                abort(id);
+            }
+            throw error instanceof ExecutionException && error.getCause() instanceof Exception cause ? cause : error;
+        }
+
+        Part[] completed = results.stream()
+                .sorted((a, b) -> Integer.compare(a.partNumber(), b.partNumber()))
+                .map(result -> new Part(result.partNumber(), result.etag()))
+                .toArray(Part[]::new);
+        client.completeMultipartUploadAsync(bucket, null, objectName, id, completed, noParams(), noParams()).get();
+        return summary(start, id);
+    }
+
+    private void uploadPart(String uploadId, int partNumber, byte[] data) throws Exception {
+        Part existing = existingParts.get(partNumber);
+        if (existing != null && existing.partSize() == data.length && unquote(existing.etag()).equals(md5(data))) {
+            results.add(new PartResult(partNumber, existing.etag(), data.length, 0, 0, true));
+            return;
+        }
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            if (failure.get() != null) {
+                return;
+            }
+            try {
+                String etag = client.uploadPartAsync(bucket, null, objectName, data, data.length, uploadId, partNumber, noParams(), noParams())
+                        .get().etag();
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                results.add(new PartResult(partNumber, etag, data.length, millis, attempt, false));
+                LOGGER.debug("Uploaded part {} of {} ({} bytes) in {} ms, attempt {}", partNumber, objectName, data.length, millis, attempt);
+                return;
+            } catch (ExecutionException e) {
+                if (attempt > partRetries) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                }
+                long delay = RETRY_BASE_DELAY_MS << (attempt - 1);
+                LOGGER.warn("Part {} of {} failed (attempt {}), retrying in {} ms: {}", partNumber, objectName, attempt, delay, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * The most recently started unfinished upload of this object, or null.
+     */
+    private String findPendingUpload() {
+        try {
+            ListMultipartUploadsResult result = client.listMultipartUploadsAsync(bucket, null, null, null, null, 1000, objectName, null, noParams(), noParams())
+                    .get().result();
+            Upload latest = null;
+            for (Upload upload : result.uploads()) {
+                if (upload.objectName().equals(objectName)
+                        && (latest == null || upload.initiated().isAfter(latest.initiated()))) {
+                    latest = upload;
+                }
+            }
+            return latest != null ? latest.uploadId() : null;
+        } catch (Exception e) {
+            LOGGER.warn("Could not look up unfinished uploads of {}, starting a new one: {}", objectName, e.getMessage());
+            return null;
+        }
+    }
+
+    private Map<Integer, Part> listParts(String uploadId) throws Exception {
+        Map<Integer, Part> parts = new HashMap<>();
+        Integer marker = null;
+        while (true) {
+            ListPartsResponse response = client.listPartsAsync(bucket, null, objectName, 1000, marker, uploadId, noParams(), noParams()).get();
+            for (Part part : response.result().partList()) {
+                parts.put(part.partNumber(), part);
+            }
+            if (!response.result().isTruncated()) {
+                return parts;
+            }
+            marker = response.result().nextPartNumberMarker();
+        }
+    }
+
+    private void abort(String uploadId) {
+        try {
+            client.abortMultipartUploadAsync(bucket, null, objectName, uploadId, noParams(), noParams()).get();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to abort upload {} of {}: {}", uploadId, objectName, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> summary(long start, String uploadId) {
+        long bytes = 0;
+        long slowestMillis = -1;
+        int slowestPart = 0;
+        long totalMillis = 0;
+        int uploaded = 0;
+        int resumed = 0;
+        int retries = 0;
+        for (PartResult result : results) {
+            bytes += result.bytes();
+            if (result.resumed()) {
+                resumed++;
+                continue;
+            }
+            uploaded++;
+            totalMillis += result.millis();
+            retries += result.attempts() - 1;
+            if (result.millis() > slowestMillis) {
+                slowestMillis = result.millis();
+                slowestPart = result.partNumber();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("object", objectName);
+        stats.put("upload_id", uploadId);
+        stats.put("bytes", bytes);
+        stats.put("parts", results.size());
+        stats.put("resumed_parts", resumed);
+        stats.put("retries", retries);
+        stats.put("parallelism", parallelism);
+        stats.put("duration_ms", Math.round(nanos / 1_000_000.0));
+        stats.put("mb_per_second", nanos > 0 ? Math.round(bytes / 1_048_576.0 / (nanos / 1e9) * 10) / 10.0 : 0);
+        stats.put("part_ms_avg", uploaded > 0 ? totalMillis / uploaded : 0);
+        stats.put("part_ms_max", Math.max(0, slowestMillis));
+        stats.put("slowest_part", slowestPart);
+        return stats;
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+    }
+
+    private static String unquote(String etag) {
+        return etag == null ? "" : etag.replace("\"", "");
+    }
+
+    private static Multimap<String, String> contentType() {
+        Multimap<String, String> headers = HashMultimap.create();
+        headers.put("Content-Type", "application/octet-stream");
+        return headers;
+    }
+
+    private static Multimap<String, String> noParams() {
+        return HashMultimap.create();
+    }
+}
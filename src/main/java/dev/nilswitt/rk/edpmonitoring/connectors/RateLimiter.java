@@ -0,0 +1,78 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket allowing {@code permitsPerSecond} calls on average and bursts of up to {@code burst} calls.
+ * A rate of 0 disables limiting.
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long granted = 0;
+    private long delayed = 0;
+    private long throttled = 0;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Take one permit, waiting at most {@code maxWaitMillis} for it.
+     *
+     * @return false if no permit became available in time
+     */
+    public boolean acquire(long maxWaitMillis) throws InterruptedException {
+        if (permitsPerSecond <= 0) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        boolean waited = false;
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    granted++;
+                    if (waited) {
+                        delayed++;
+                    }
+                    return true;
+                }
+                waitNanos = (long) Math.ceil((1 - tokens) / permitsPerSecond * 1_000_000_000L);
+                if (System.nanoTime() + waitNanos > deadline) {
+                    throttled++;
+                    return false;
+                }
+            }
+            waited = true;
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) / 1_000_000_000.0 * permitsPerSecond);
+        lastRefill = now;
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        refill();
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", permitsPerSecond > 0);
+        status.put("permits_per_second", permitsPerSecond);
+        status.put("available", Math.floor(tokens));
+        status.put("granted", granted);
+        status.put("delayed", delayed);
+        status.put("throttled", throttled);
+        return status;
+    }
+}
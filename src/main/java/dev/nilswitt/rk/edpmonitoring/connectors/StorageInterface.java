@@ -1,10 +1,32 @@
 package dev.nilswitt.rk.edpmonitoring.connectors;
 
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 
 public interface StorageInterface {
 
     void putFile(String objectName, String localPath) throws Exception;
 
+    /**
+     * Upload a stream of unknown length. Implementations must not buffer the whole stream and must not
+     * create the object if reading the stream fails.
+     *
+     * @return a summary of this upload, such as part count and per-part timing, or an empty map
+     */
+    Map<String, Object> putStream(String objectName, InputStream stream) throws Exception;
+
+    /**
+     * Content of a small object, or null if it does not exist.
+     */
+    byte[] getBytes(String objectName) throws Exception;
+
     List<String> getFiles();
+
+    /**
+     * Names of all objects below {@code prefix}, including nested ones.
+     */
+    default List<String> getFiles(String prefix) {
+        return getFiles().stream().filter(file -> file.startsWith(prefix)).toList();
+    }
 }
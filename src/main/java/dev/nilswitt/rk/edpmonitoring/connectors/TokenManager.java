@@ -0,0 +1,132 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Holds the API bearer token and shares one login between all callers.
+ * <p>
+ * Callers take a token with {@link #getToken()} and, on a 401, hand the rejected token to
+ * {@link #refresh(String)}. Only the first caller with a given stale token logs in; everyone else waits for
+ * that login and gets its result. Tokens carrying a JWT {@code exp} claim are renewed shortly before they
+ * expire. A token that is rejected right after it was issued, or a login that just failed, does not trigger
+ * another login, so a request never waits on more than one.
+ */
+public class TokenManager {
+
+    private static final Logger LOGGER = LogManager.getLogger(TokenManager.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Supplier<String> loginCall;
+    private final long refreshSkewMillis;
+    private final long loginBackoffMillis;
+    private volatile String token;
+    private volatile long expiresAt;
+    private volatile long issuedAt;
+    private volatile long lastFailure;
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong failedLogins = new AtomicLong();
+    private final AtomicLong proactiveRefreshes = new AtomicLong();
+    private final AtomicLong sharedRefreshes = new AtomicLong();
+
+    public TokenManager(String initialToken, Supplier<String> loginCall, ConfigConnector configConnector) {
+        this.loginCall = loginCall;
+        this.refreshSkewMillis = Long.parseLong(configConnector.getConfigValue("api.token.refresh_skew_seconds", "API_TOKEN_REFRESH_SKEW_SECONDS", "60")) * 1000;
+        this.loginBackoffMillis = Long.parseLong(configConnector.getConfigValue("api.token.login_backoff_seconds", "API_TOKEN_LOGIN_BACKOFF_SECONDS", "5")) * 1000;
+        if (initialToken != null && !initialToken.isEmpty()) {
+            this.token = initialToken;
+            this.expiresAt = parseExpiry(initialToken);
+        }
+    }
+
+    /**
+     * Current token, renewed first if it is missing or about to expire.
+     */
+    public String getToken() {
+        String current = token;
+        if (current == null || (expiresAt > 0 && System.currentTimeMillis() >= expiresAt - refreshSkewMillis)) {
+            if (current != null) {
+                proactiveRefreshes.incrementAndGet();
+            }
+            return refresh(current);
+        }
+        return current;
+    }
+
+    /**
+     * Replace a token the API rejected. If another caller already replaced it, the newer token is returned
+     * without logging in again.
+     *
+     * @return the token to retry with; may be the stale token if no new one could be obtained
+     */
+    public synchronized String refresh(String staleToken) {
+        if (token != null && !Objects.equals(token, staleToken)) {
+            sharedRefreshes.incrementAndGet();
+            return token;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastFailure < loginBackoffMillis) {
+            LOGGER.debug("refresh: last login failed {} ms ago, not retrying yet", now - lastFailure);
+            return token;
+        }
+        boolean notExpired = expiresAt == 0 || now < expiresAt - refreshSkewMillis;
+        if (staleToken != null && notExpired && now - issuedAt < loginBackoffMillis) {
+            LOGGER.warn("refresh: token issued {} ms ago was rejected, not logging in again", now - issuedAt);
+            return token;
+        }
+
+        String fresh = loginCall.get();
+        if (fresh == null) {
+            lastFailure = now;
+            failedLogins.incrementAndGet();
+            return token;
+        }
+        logins.incrementAndGet();
+        token = fresh;
+        issuedAt = now;
+        expiresAt = parseExpiry(fresh);
+        if (expiresAt > 0) {
+            LOGGER.info("refresh: new token valid for {} s", (expiresAt - now) / 1000);
+        }
+        return fresh;
+    }
+
+    /**
+     * Read the {@code exp} claim of a JWT.
+     *
+     * @return expiry in epoch milliseconds, or 0 if the token is not a JWT or has no expiry
+     */
+    static long parseExpiry(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) {
+            return 0;
+        }
+        try {
+            JsonNode exp = MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1])).get("exp");
+            return exp != null && exp.isNumber() ? exp.asLong() * 1000 : 0;
+        } catch (Exception e) {
+            LOGGER.debug("parseExpiry: token is not a readable JWT: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("has_token", token != null);
+        status.put("expires_in_seconds", expiresAt > 0 ? (expiresAt - System.currentTimeMillis()) / 1000 : null);
+        status.put("logins", logins.get());
+        status.put("failed_logins", failedLogins.get());
+        status.put("proactive_refreshes", proactiveRefreshes.get());
+        status.put("shared_refreshes", sharedRefreshes.get());
+        return status;
+    }
+}
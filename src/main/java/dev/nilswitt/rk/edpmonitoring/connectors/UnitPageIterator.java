@@ -0,0 +1,255 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import dev.nilswitt.rk.edpmonitoring.enitites.Unit;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the units of a HAL collection, one page at a time.
+ * <p>
+ * Each page is parsed token by token straight from the response stream: units in any array below
+ * {@code _embedded} are bound one at a time, and {@code _links.next.href} is followed once the page is
+ * exhausted. Only the current unit and the open response are held in memory. Close the iterator if it is
+ * abandoned before the end so the response is released.
+ */
+public class UnitPageIterator implements Iterator<Unit>, AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(UnitPageIterator.class);
+
+    private enum State { ROOT, EMBEDDED, ARRAY }
+
+    private final OkHttpClient client;
+    private final TokenManager tokens;
+    private final ObjectMapper mapper;
+    private HttpUrl nextUrl;
+    private HttpUrl pageUrl;
+    private Response response;
+    private JsonParser parser;
+    private State state;
+    private Unit pending;
+    private int pages = 0;
+    private int units = 0;
+    private String ifNoneMatch;
+    private String ifModifiedSince;
+    private String etag;
+    private String lastModified;
+    private boolean notModified = false;
+
+    UnitPageIterator(OkHttpClient client, TokenManager tokens, ObjectMapper mapper, HttpUrl firstPage) {
+        this.client = client;
+        this.tokens = tokens;
+        this.mapper = mapper;
+        this.nextUrl = firstPage;
+    }
+
+    /**
+     * Make the first page request conditional. If the server answers 304 the iterator is empty and
+     * {@link #isNotModified()} returns true.
+     */
+    UnitPageIterator conditional(String etag, String lastModified) {
+        this.ifNoneMatch = etag;
+        this.ifModifiedSince = lastModified;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            pending = advance();
+        }
+        return pending != null;
+    }
+
+    @Override
+    public Unit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Unit unit = pending;
+        pending = null;
+        units++;
+        return unit;
+    }
+
+    private Unit advance() {
+        while (true) {
+            if (parser == null) {
+                if (nextUrl == null) {
+                    return null;
+                }
+                HttpUrl url = nextUrl;
+                nextUrl = null;
+                openPage(url);
+                if (parser == null) {
+                    return null;
+                }
+            }
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                closePage();
+                continue;
+            }
+            switch (state) {
+                case ROOT -> {
+                    if (token == JsonToken.END_OBJECT) {
+                        closePage();
+                    } else if (token == JsonToken.PROPERTY_NAME) {
+                        String name = parser.currentName();
+                        JsonToken value = parser.nextToken();
+                        if (name.equals("_embedded") && value == JsonToken.START_OBJECT) {
+                            state = State.EMBEDDED;
+                        } else if (name.equals("_links") && value == JsonToken.START_OBJECT) {
+                            readNextLink(mapper.readTree(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+                case EMBEDDED -> {
+                    if (token == JsonToken.END_OBJECT) {
+                        state = State.ROOT;
+                    } else if (token == JsonToken.PROPERTY_NAME) {
+                        if (parser.nextToken() == JsonToken.START_ARRAY) {
+                            state = State.ARRAY;
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+                case ARRAY -> {
+                    if (token == JsonToken.END_ARRAY) {
+                        state = State.EMBEDDED;
+                    } else if (token == JsonToken.START_OBJECT) {
+                        Unit unit = mapper.readValue(parser, Unit.class);
+                        unit.clearChanges();
+                        return unit;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    private void readNextLink(JsonNode links) {
+        JsonNode href = links.path("next").path("href");
+        if (href.isString()) {
+            nextUrl = pageUrl.resolve(href.asString());
+            if (nextUrl == null) {
+                LOGGER.warn("Ignoring unparseable next link '{}'", href.asString());
+            }
+        }
+    }
+
+    private void openPage(HttpUrl url) {
+        String token = tokens.getToken();
+        boolean first = pages == 0;
+        Response page = execute(url, token, first);
+        if (page.code() == 401) {
+            page.close();
+            LOGGER.info("streamUnits: unauthorized, refreshing token");
+            page = execute(url, tokens.refresh(token), first);
+        }
+        if (first && page.code() == 304) {
+            page.close();
+            notModified = true;
+            etag = ifNoneMatch;
+            lastModified = ifModifiedSince;
+            LOGGER.debug("streamUnits: {} not modified", url);
+            return;
+        }
+        if (first) {
+            etag = page.header("ETag");
+            lastModified = page.header("Last-Modified");
+        }
+        if (page.code() < 200 || page.code() >= 300) {
+            int code = page.code();
+            page.close();
+            throw new IllegalStateException("Failed to get units from " + url + "; Code: " + code);
+        }
+        response = page;
+        pageUrl = url;
+        parser = mapper.createParser(page.body().byteStream());
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            closePage();
+            throw new IllegalStateException("Unit page " + url + " is not a JSON object");
+        }
+        state = State.ROOT;
+        pages++;
+        LOGGER.debug("streamUnits: reading page {} from {}", pages, url);
+    }
+
+    private Response execute(HttpUrl url, String token, boolean conditional) {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .get()
+                .addHeader("Accept", "application/hal+json, application/json")
+                .addHeader("Authorization", "Bearer " + token);
+        if (conditional && ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        if (conditional && ifModifiedSince != null) {
+            request.addHeader("If-Modified-Since", ifModifiedSince);
+        }
+        try {
+            return client.newCall(request.build()).execute();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to get units from " + url, e);
+        }
+    }
+
+    private void closePage() {
+        if (parser != null) {
+            parser.close();
+            parser = null;
+        }
+        if (response != null) {
+            response.close();
+            response = null;
+        }
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Validators of the first page, or null once the catalogue spans several pages, since they do not
+     * cover the later ones.
+     */
+    public String getETag() {
+        return pages > 1 ? null : etag;
+    }
+
+    public String getLastModified() {
+        return pages > 1 ? null : lastModified;
+    }
+
+    @Override
+    public void close() {
+        closePage();
+        nextUrl = null;
+        pending = null;
+    }
+}
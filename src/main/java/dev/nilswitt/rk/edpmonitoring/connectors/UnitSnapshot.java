@@ -0,0 +1,120 @@
+package dev.nilswitt.rk.edpmonitoring.connectors;
+
+import dev.nilswitt.rk.edpmonitoring.enitites.Position;
+import dev.nilswitt.rk.edpmonitoring.enitites.Unit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the non-foreign {@code einsatzmittel} rows, keyed by RUFNAME.
+ * <p>
+ * The first {@link #refresh()} loads the whole table. Later calls only read rows whose ZEITSTEMPEL is at
+ * or after the highest timestamp seen so far, so a refresh costs time proportional to the number of changed
+ * rows. The high-water mark is taken from the database values, not the local clock, and the comparison is
+ * inclusive so rows changed within the same second as the mark are not missed. Deleted rows are only noticed
+ * by {@link #fullRefresh()}, which Main runs every few incremental refreshes.
+ */
+public class UnitSnapshot {
+
+    private static final Logger LOGGER = LogManager.getLogger(UnitSnapshot.class);
+
+    private final MariaDBConnector mariaDBConnector;
+    private final Map<String, Unit> units = new ConcurrentHashMap<>();
+    private Timestamp highWaterMark;
+    private boolean loaded = false;
+
+    UnitSnapshot(MariaDBConnector mariaDBConnector) {
+        this.mariaDBConnector = mariaDBConnector;
+    }
+
+    /**
+     * Merge rows changed since the last refresh into the snapshot.
+     *
+     * @return units whose status or position changed, or that were added
+     */
+    public synchronized List<Unit> refresh() {
+        return load(loaded ? highWaterMark : null);
+    }
+
+    /**
+     * Reload the whole table, merging it into the snapshot and dropping units whose rows are gone.
+     *
+     * @return units whose status or position changed, or that were added
+     */
+    public synchronized List<Unit> fullRefresh() {
+        return load(null);
+    }
+
+    private List<Unit> load(Timestamp since) {
+        long start = System.nanoTime();
+        ArrayList<MariaDBConnector.UnitRow> rows = mariaDBConnector.getUnitsChangedSince(since);
+        if (rows == null) {
+            return Collections.emptyList();
+        }
+        List<Unit> changed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (MariaDBConnector.UnitRow row : rows) {
+            seen.add(row.name());
+            if (row.changedAt() != null && (highWaterMark == null || row.changedAt().after(highWaterMark))) {
+                highWaterMark = row.changedAt();
+            }
+            if (row.foreign()) {
+                units.remove(row.name());
+                continue;
+            }
+            Unit unit = units.get(row.name());
+            if (unit == null) {
+                unit = new Unit(null, row.name());
+                unit.setStatus(row.status());
+                unit.setPosition(new Position(row.koordX(), row.koordY()));
+                units.put(row.name(), unit);
+                changed.add(unit);
+            } else if (merge(unit, row)) {
+                changed.add(unit);
+            }
+        }
+        int removed = 0;
+        if (since == null && loaded) {
+            for (Iterator<String> it = units.keySet().iterator(); it.hasNext(); ) {
+                if (!seen.contains(it.next())) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        loaded = true;
+        LOGGER.info("Unit snapshot {}refreshed: {} row(s) read, {} changed, {} removed, {} unit(s) total in {} ms",
+                since == null ? "fully " : "", rows.size(), changed.size(), removed, units.size(),
+                Math.round((System.nanoTime() - start) / 1_000_000.0));
+        return changed;
+    }
+
+    private static boolean merge(Unit unit, MariaDBConnector.UnitRow row) {
+        boolean changed = false;
+        if (unit.getStatus() != row.status()) {
+            unit.setStatus(row.status());
+            changed = true;
+        }
+        Position position = unit.getPosition();
+        if (position == null || position.getLongitude() != row.koordX() || position.getLatitude() != row.koordY()) {
+            unit.setPosition(new Position(row.koordX(), row.koordY()));
+            changed = true;
+        }
+        return changed;
+    }
+
+    public Collection<Unit> getUnits() {
+        return Collections.unmodifiableCollection(units.values());
+    }
+}
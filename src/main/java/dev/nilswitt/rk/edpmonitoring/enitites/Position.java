@@ -1,5 +1,7 @@
 package dev.nilswitt.rk.edpmonitoring.enitites;
 
+import java.util.Objects;
+
 public class Position {
 
     private double longitude;
@@ -21,6 +23,18 @@ public class Position {
         return latitude;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Position other)) return false;
+        return Double.compare(longitude, other.longitude) == 0 && Double.compare(latitude, other.latitude) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(longitude, latitude);
+    }
+
     @Override
     public String toString() {
         return "Position{" +
@@ -3,6 +3,9 @@ package dev.nilswitt.rk.edpmonitoring.enitites;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 public class Unit extends AbstractEntity {
@@ -17,6 +20,11 @@ public class Unit extends AbstractEntity {
 
     private boolean speakRequest = false;
 
+    /**
+     * JSON property names changed since the last successful push; not serialized.
+     */
+    private final Set<String> changedFields = new HashSet<>();
+
     public Unit(){
         super(UUID.randomUUID());
     }
@@ -40,6 +48,9 @@ public class Unit extends AbstractEntity {
     }
 
     public void setName(String name) {
+        if (!Objects.equals(this.name, name)) {
+            markChanged("name");
+        }
         this.name = name;
     }
 
@@ -48,6 +59,9 @@ public class Unit extends AbstractEntity {
     }
 
     public void setPosition(Position position) {
+        if (!Objects.equals(this.position, position)) {
+            markChanged("position");
+        }
         this.position = position;
     }
 
@@ -56,6 +70,9 @@ public class Unit extends AbstractEntity {
     }
 
     public void setStatus(int status) {
+        if (this.status != status) {
+            markChanged("status");
+        }
         this.status = status;
     }
 
@@ -64,6 +81,33 @@ public class Unit extends AbstractEntity {
     }
 
     public void setSpeakRequest(boolean speakRequest) {
+        if (this.speakRequest != speakRequest) {
+            markChanged("speakRequest");
+        }
         this.speakRequest = speakRequest;
     }
+
+    private synchronized void markChanged(String field) {
+        changedFields.add(field);
+    }
+
+    /**
+     * Return the fields changed since the last call and start tracking afresh.
+     */
+    public synchronized Set<String> takeChanges() {
+        Set<String> changes = new HashSet<>(changedFields);
+        changedFields.clear();
+        return changes;
+    }
+
+    /**
+     * Put fields back that were taken with {@link #takeChanges()} but could not be pushed.
+     */
+    public synchronized void restoreChanges(Set<String> fields) {
+        changedFields.addAll(fields);
+    }
+
+    public synchronized void clearChanges() {
+        changedFields.clear();
+    }
 }
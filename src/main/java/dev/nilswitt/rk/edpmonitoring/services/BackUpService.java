@@ -1,22 +1,17 @@
 package dev.nilswitt.rk.edpmonitoring.services;
 
 import dev.nilswitt.rk.edpmonitoring.connectors.ConfigConnector;
-import dev.nilswitt.rk.edpmonitoring.connectors.GPGConnector;
 import dev.nilswitt.rk.edpmonitoring.connectors.StorageInterface;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -49,38 +44,68 @@ public class BackUpService {
             String intervalStr = props.getProperty("db.backup." + key + ".interval", null);
             String enabledStr = props.getProperty("db.backup." + key + ".enabled", "false");
             String storageId = props.getProperty("db.backup." + key + ".storage_id", null);
-            String tmpDir = props.getProperty("db.backup." + key + ".tmpdir", null);
+            int pipeBufferKb = Integer.parseInt(props.getProperty("db.backup." + key + ".pipe_buffer_kb", "1024"));
+            String format = props.getProperty("db.backup." + key + ".format", "stream");
+            int chunkAvgKb = Integer.parseInt(props.getProperty("db.backup." + key + ".chunk_avg_kb", "1024"));
+            int chunkUploadParallelism = Integer.parseInt(props.getProperty("db.backup." + key + ".chunk_upload_parallelism", "4"));
+            String chunkSecret = props.getProperty("db.backup." + key + ".chunk_secret", null);
+            String compression = props.getProperty("db.backup." + key + ".compression", "gzip");
+            int compressionLevel = Integer.parseInt(props.getProperty("db.backup." + key + ".compression_level", "-1"));
+            int indexHistory = Integer.parseInt(props.getProperty("db.backup." + key + ".index_history", "100"));
             String id = props.getProperty("db.backup." + key + ".id", null);
             String executablePath = props.getProperty("db.backup." + key + ".dump_executable", null);
             String encryptionKeyPath = props.getProperty("db.backup." + key + ".encryption_Key", null);
             if (enabledStr != null && enabledStr.equals("true")) {
-                if (intervalStr == null || storageId == null || id == null || executablePath == null || encryptionKeyPath == null || tmpDir == null) {
+                if (intervalStr == null || storageId == null || id == null || executablePath == null || encryptionKeyPath == null) {
                     LOGGER.error("Backup configuration for key {} is incomplete. Skipping backup task.", key);
                     return;
                 }
                 StorageInterface storageInterface = StorageService.getInstance().getConnectors().get(storageId);
-                startWorker(id, Integer.parseInt(intervalStr) * 60, storageInterface, executablePath, tmpDir, encryptionKeyPath);
+                CompressionCodec codec;
+                try {
+                    codec = CompressionCodec.fromConfig(compression);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.error("Backup configuration for key {} is invalid: {}. Skipping backup task.", key, e.getMessage());
+                    return;
+                }
+                BackupFormat backupFormat;
+                if (format.equals("chunked")) {
+                    if (chunkSecret == null || chunkSecret.isBlank()) {
+                        LOGGER.error("Backup configuration for key {} uses the chunked format without a chunk_secret. Skipping backup task.", key);
+                        return;
+                    }
+                    try {
+                        backupFormat = new ChunkedBackup(id, executablePath, encryptionKeyPath, chunkSecret, chunkAvgKb, chunkUploadParallelism, codec, compressionLevel);
+                    } catch (GeneralSecurityException e) {
+                        LOGGER.error("Backup configuration for key {} is invalid: {}. Skipping backup task.", key, e.getMessage());
+                        return;
+                    }
+                } else {
+                    backupFormat = new BackupPipeline(executablePath, encryptionKeyPath, pipeBufferKb, codec, compressionLevel);
+                }
+                startWorker(id, Integer.parseInt(intervalStr) * 60, storageInterface, backupFormat, indexHistory);
             }
         });
         Runtime.getRuntime().addShutdownHook(new Thread(executor::shutdown));
     }
 
-    private static void startWorker(String id, int interval, StorageInterface storageInterface, String executablePath, String tmpDir, String encryptionKeyPath) {
-        LOGGER.info("Starting BackUpWorker with ID: {}, Interval: {} seconds, Executable Path: {}, Temp Dir: {}, Encryption Key Path: {}", id, interval, executablePath, tmpDir, encryptionKeyPath);
+    private static void startWorker(String id, int interval, StorageInterface storageInterface, BackupFormat format, int indexHistory) {
+        LOGGER.info("Starting BackUpWorker with ID: {}, Interval: {} seconds", id, interval);
 
         int duration_ago = 0;
+        BackupIndex index = null;
         try {
-            HashSet<String> backupKeys = new HashSet<>();
-            String prefix = "backup_" + id + "_";
-            storageInterface.getFiles().stream().filter(file -> file.startsWith(prefix)).forEach(file -> backupKeys.add(file.substring(prefix.length(), prefix.length() + 19)));
-            LocalDateTime last_backup = null;
-            for (String backupKey : backupKeys) {
-                LocalDateTime keyTime = LocalDateTime.parse(backupKey, DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
-                if (last_backup == null) {
-                    last_backup = keyTime;
-                } else if (keyTime.isAfter(last_backup)) {
-                    last_backup = keyTime;
-                }
+            try {
+                index = BackupIndex.load(storageInterface, id);
+            } catch (Exception e) {
+                LOGGER.warn("Can not read backup index of ID {}: {}", id, e.getMessage());
+            }
+            LocalDateTime last_backup;
+            if (index != null) {
+                last_backup = index.latest() != null ? LocalDateTime.parse(index.latest().time(), DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss")) : null;
+            } else {
+                // no index yet (first run or backups written by an older version): list this job's objects once
+                last_backup = lastBackupFromListing(storageInterface, id);
             }
             LOGGER.info("Last backup time for ID {}: {}", id, last_backup);
 
@@ -99,7 +124,23 @@ public class BackUpService {
             LOGGER.info("Scheduling immediate BackUpWorker for ID {}", id);
         }
 
-        executor.scheduleAtFixedRate(new BackUpWorker(id, storageInterface, executablePath, tmpDir, encryptionKeyPath), offset, interval, TimeUnit.SECONDS);
+        executor.scheduleAtFixedRate(new BackUpWorker(id, storageInterface, format, index, indexHistory), offset, interval, TimeUnit.SECONDS);
+    }
+
+    private static LocalDateTime lastBackupFromListing(StorageInterface storageInterface, String id) {
+        HashSet<String> backupKeys = new HashSet<>();
+        String prefix = "backup_" + id + "_";
+        storageInterface.getFiles(prefix).stream().filter(file -> file.length() >= prefix.length() + 19).forEach(file -> backupKeys.add(file.substring(prefix.length(), prefix.length() + 19)));
+        LocalDateTime last_backup = null;
+        for (String backupKey : backupKeys) {
+            LocalDateTime keyTime = LocalDateTime.parse(backupKey, DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
+            if (last_backup == null) {
+                last_backup = keyTime;
+            } else if (keyTime.isAfter(last_backup)) {
+                last_backup = keyTime;
+            }
+        }
+        return last_backup;
     }
 
     public static void stop() {
@@ -109,107 +150,54 @@ public class BackUpService {
 
     private static class BackUpWorker implements Runnable {
         private static Logger logger = LogManager.getLogger(BackUpWorker.class);
-        private static boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
         private static DateTimeFormatter myFormatObj = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
 
-        private final String executablePath;
         private final StorageInterface storageInterface;
-        private final String tmpDir;
-        private final String encryptionKeyPath;
+        private final BackupFormat format;
         private final String id;
+        private final int indexHistory;
+        private BackupIndex index;
 
-        Path backTmpFile;
-
-        public BackUpWorker(String id, StorageInterface storageInterface, String executablePath, String tmpDir, String encryptionKeyPath) {
+        public BackUpWorker(String id, StorageInterface storageInterface, BackupFormat format, BackupIndex index, int indexHistory) {
             this.storageInterface = storageInterface;
-            this.executablePath = executablePath;
-            this.tmpDir = tmpDir;
-            this.encryptionKeyPath = encryptionKeyPath;
+            this.format = format;
             this.id = id;
+            this.index = index;
+            this.indexHistory = indexHistory;
         }
 
         @Override
         public void run() {
             logger.info("BackUpWorker started.");
+            String time = LocalDateTime.now().format(myFormatObj);
             try {
-                runPreHook();
-                uploadToStorage();
-                runPostHook();
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
+                BackupFormat.Result result = format.run(storageInterface, "backup_" + id + "_" + time);
+                logger.info("Backup {} uploaded: {}", id, result.stats());
+                BackUpService.updateStatus(id + "_last_backup", time);
+                BackUpService.updateStatus(id + "_last_pipeline", result.stats());
+                updateIndex(new BackupIndex.Entry(result.objectName(), time, format.getName(), result.bytes(), result.sourceBytes(), result.sha256()));
+            } catch (Exception e) {
+                logger.error("Backup {} failed: {}", id, e.getMessage(), e);
+                BackUpService.updateStatus(id + "_last_error", time + ": " + e.getMessage());
             }
             logger.info("BackUpWorker finished.");
         }
 
-
-        private void runPreHook() throws IOException, InterruptedException {
-            logger.info("Pre-hook started.");
-            Random random = new Random();
-            if (executablePath == null) {
-                logger.error("No database dump executable path configured. Aborting backup.");
-                return;
-            }
-            String backupFileName = random.ints(48, 122 + 1)
-                    .filter(i -> (i <= 57 || i >= 65) && (i <= 90 || i >= 97))
-                    .limit(10)
-                    .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
-                    .toString() + ".sql";
-            backTmpFile = Path.of(tmpDir, backupFileName);
-            Path sqlDir = Path.of(tmpDir);
-            logger.info("Back-up executable path: {}", executablePath);
-            logger.info("Back-up tmp path: {}", backTmpFile);
-            if (!Files.exists(sqlDir)) {
-                Files.createDirectories(sqlDir);
-            }
-
-            if (isWindows) {
-                ProcessBuilder builder = new ProcessBuilder("CMD", "/C", executablePath + " > " + backTmpFile.toAbsolutePath());
-                logger.info("Running: {}", String.join(" ", builder.command()));
-                builder.inheritIO();
-                Process process = builder.start();
-                process.waitFor();
-            } else {
-                ProcessBuilder builder = new ProcessBuilder("sh", "-c", executablePath + " > " + backTmpFile.toAbsolutePath());
-                builder.inheritIO();
-                Process process = builder.start();
-                process.waitFor();
-            }
-            logger.info("Pre-hook finished.");
-        }
-
-        private void uploadToStorage() {
-            logger.info("uploadToMinIO started.");
+        private void updateIndex(BackupIndex.Entry entry) {
             try {
-                GPGConnector.encrypt(encryptionKeyPath, backTmpFile.toAbsolutePath().toString(), backTmpFile.toAbsolutePath() + ".gpg");
-                logger.info("File encryption finished.");
-                storageInterface.putFile("backup_" + id + "_" + LocalDateTime.now().format(myFormatObj) + ".sql.gpg", backTmpFile.toAbsolutePath() + ".gpg");
-                logger.info("Upload finished.");
-                BackUpService.updateStatus(id + "_last_backup", LocalDateTime.now().format(myFormatObj));
-            } catch (Exception e) {
-                logger.error(e.getMessage());
-            }
-            logger.info("uploadToMinIO finished.");
-        }
-
-        private void runPostHook() {
-            logger.info("Post-hook started.");
-            File file = new File(backTmpFile.toAbsolutePath().toString());
-            if (file.exists()) {
-                if (file.delete()) {
-                    logger.info("Temporary backup file deleted: {}", backTmpFile.toAbsolutePath());
-                } else {
-                    logger.warn("Failed to delete temporary backup file: {}", backTmpFile.toAbsolutePath());
-                }
-            }
-            File fileGPG = new File(backTmpFile.toAbsolutePath() + ".gpg");
-            if (fileGPG.exists()) {
-                if (fileGPG.delete()) {
-                    logger.info("Temporary backup file deleted: {}", backTmpFile.toAbsolutePath() + ".gpg");
-                } else {
-                    logger.warn("Failed to delete temporary backup file: {}", backTmpFile.toAbsolutePath() + ".gpg");
+                if (index == null) {
+                    // not readable at startup; read it again rather than overwriting its history
+                    index = BackupIndex.load(storageInterface, id);
                 }
+                BackupIndex updated = (index != null ? index : BackupIndex.empty(id)).withBackup(entry, indexHistory);
+                updated.save(storageInterface);
+                index = updated;
+                BackUpService.updateStatus(id + "_index_entries", updated.history().size());
+            } catch (Exception e) {
+                // the backup itself is stored; a stale index only makes the next startup back up early
+                logger.warn("Failed to update backup index of {}: {}", id, e.getMessage());
+                BackUpService.updateStatus(id + "_last_error", entry.time() + ": index update failed: " + e.getMessage());
             }
-            logger.info("Post-hook finished.");
         }
     }
 
@@ -0,0 +1,23 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import dev.nilswitt.rk.edpmonitoring.connectors.StorageInterface;
+
+import java.util.Map;
+
+/**
+ * Writes one backup run to storage. Implementations name their objects {@code baseName} plus a suffix, so
+ * the run's timestamp stays at the same position in every format.
+ */
+interface BackupFormat {
+
+    /**
+     * The object that makes up the backup (or its manifest) with its stored size and SHA-256, the size of
+     * the dump, and statistics of the run for the backup status.
+     */
+    record Result(String objectName, long bytes, long sourceBytes, String sha256, Map<String, Object> stats) {
+    }
+
+    String getName();
+
+    Result run(StorageInterface storage, String baseName) throws Exception;
+}
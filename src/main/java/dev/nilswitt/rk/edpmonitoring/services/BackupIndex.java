@@ -0,0 +1,60 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import dev.nilswitt.rk.edpmonitoring.connectors.StorageInterface;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small per-job index object {@code index/backup_<id>.json} holding the latest backup and a bounded
+ * history, so startup reads one object instead of listing the bucket.
+ * <p>
+ * The index is rewritten with a single PUT after every successful backup; object stores replace an object
+ * atomically, so readers see either the previous or the new index. Each job has one writer, its worker.
+ */
+public record BackupIndex(int version, String id, Entry latest, List<Entry> history) {
+
+    private static final int VERSION = 1;
+
+    /**
+     * One backup run. {@code time} is the timestamp used in the object name ({@code yyyy-MM-dd_HH-mm-ss}),
+     * {@code bytes} and {@code sha256} describe the stored object and {@code sourceBytes} the dump.
+     */
+    public record Entry(String object, String time, String format, long bytes, long sourceBytes, String sha256) {
+    }
+
+    public static String objectName(String id) {
+        return "index/backup_" + id + ".json";
+    }
+
+    public static BackupIndex empty(String id) {
+        return new BackupIndex(VERSION, id, null, List.of());
+    }
+
+    /**
+     * The stored index, or null if the job has none yet.
+     */
+    public static BackupIndex load(StorageInterface storage, String id) throws Exception {
+        byte[] data = storage.getBytes(objectName(id));
+        return data == null ? null : new ObjectMapper().readValue(data, BackupIndex.class);
+    }
+
+    /**
+     * A copy with {@code entry} as the latest backup, keeping the newest {@code maxHistory} entries.
+     */
+    public BackupIndex withBackup(Entry entry, int maxHistory) {
+        List<Entry> entries = new ArrayList<>(history != null ? history : List.of());
+        entries.add(entry);
+        if (entries.size() > maxHistory) {
+            entries = new ArrayList<>(entries.subList(entries.size() - Math.max(1, maxHistory), entries.size()));
+        }
+        return new BackupIndex(VERSION, id, entry, List.copyOf(entries));
+    }
+
+    public void save(StorageInterface storage) throws Exception {
+        byte[] data = new ObjectMapper().writeValueAsBytes(this);
+        storage.putStream(objectName(id), new ByteArrayInputStream(data));
+    }
+}
@@ -0,0 +1,381 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import dev.nilswitt.rk.edpmonitoring.connectors.GPGConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.StorageInterface;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a database dump to storage without temporary files:
+ * <pre>
+ * dump process stdout -> compression -> [pipe] -> OpenPGP encryption -> [pipe] -> storage upload
+ * </pre>
+ * Dump/compression and encryption run on their own threads, the upload on the calling thread. Stages are
+ * connected by bounded in-memory pipes, so a slow stage throttles the ones before it and memory use is
+ * limited to the pipe buffers plus the upload part buffer, whatever the size of the dump. A failing stage
+ * fails both pipes, which aborts the upload instead of storing a truncated backup.
+ */
+public class BackupPipeline implements BackupFormat {
+
+    private static final Logger LOGGER = LogManager.getLogger(BackupPipeline.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final String dumpCommand;
+    private final String encryptionKeyPath;
+    private final int bufferedChunks;
+    private final CompressionCodec codec;
+    private final int level;
+
+    public BackupPipeline(String dumpCommand, String encryptionKeyPath, int pipeBufferKb, CompressionCodec codec, int level) {
+        this.dumpCommand = dumpCommand;
+        this.encryptionKeyPath = encryptionKeyPath;
+        this.codec = codec;
+        this.level = level;
+        this.bufferedChunks = Math.max(2, pipeBufferKb * 1024 / CHUNK_SIZE);
+    }
+
+    /**
+     * Start the dump command with its output piped to the caller; errors go to the console.
+     */
+    static Process startDump(String dumpCommand) throws IOException {
+        boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
+        ProcessBuilder builder = isWindows
+                ? new ProcessBuilder("CMD", "/C", dumpCommand)
+                : new ProcessBuilder("sh", "-c", dumpCommand);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    @Override
+    public String getName() {
+        return "stream";
+    }
+
+    /**
+     * Run the pipeline and upload the result as {@code baseName + ".sql" + extension + ".gpg"}, e.g.
+     * {@code .sql.gz.gpg} for gzip.
+     *
+     * @return the stored object with its size and SHA-256, the dump size, and per-stage byte counts,
+     * durations and throughput as stats
+     */
+    @Override
+    public Result run(StorageInterface storage, String baseName) throws Exception {
+        String objectName = baseName + ".sql" + codec.getExtension() + ".gpg";
+
+        Pipe compressed = new Pipe(bufferedChunks);
+        Pipe encrypted = new Pipe(bufferedChunks);
+        Stage dump = new Stage();
+        Stage compress = new Stage();
+        Stage encrypt = new Stage();
+        Stage upload = new Stage();
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+
+        LOGGER.info("Streaming backup {} ({} KiB pipe buffers)", objectName, bufferedChunks * CHUNK_SIZE / 1024);
+        long start = System.nanoTime();
+        Process process = startDump(dumpCommand);
+        Map<String, Object> parts;
+        ExecutorService stages = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "backup-pipeline-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Future<?> dumpStage = stages.submit(() -> {
+                OutputStream sink = compressed.sink();
+                try (InputStream in = process.getInputStream()) {
+                    CountingOutputStream counted = new CountingOutputStream(sink, compress);
+                    OutputStream compressor = codec.compress(counted, level);
+                    dump.bytes = in.transferTo(compressor);
+                    compressor.close();
+                    int exit = process.waitFor();
+                    dump.finish(start);
+                    compress.finish(start);
+                    if (exit != 0) {
+                        throw new IOException("Dump command exited with code " + exit);
+                    }
+                    // end-of-stream is only signalled after a clean dump
+                    sink.close();
+                } catch (Exception e) {
+                    compressed.fail(e);
+                    throw e;
+                }
+                return null;
+            });
+            Future<?> encryptStage = stages.submit(() -> {
+                OutputStream sink = encrypted.sink();
+                try {
+                    GPGConnector.encrypt(encryptionKeyPath, compressed.source(), new CountingOutputStream(sink, encrypt));
+                    encrypt.finish(start);
+                    sink.close();
+                } catch (Exception e) {
+                    encrypted.fail(e);
+                    compressed.fail(e);
+                    throw e;
+                }
+                return null;
+            });
+
+            try (InputStream source = new DigestInputStream(encrypted.source(), sha256)) {
+                parts = storage.putStream(objectName, source);
+                upload.bytes = encrypt.bytes;
+                upload.finish(start);
+            } catch (Exception e) {
+                compressed.fail(e);
+                encrypted.fail(e);
+                process.destroyForcibly();
+                rethrowStageFailure(dumpStage, encryptStage);
+                throw e;
+            }
+            dumpStage.get();
+            encryptStage.get();
+        } finally {
+            stages.shutdownNow();
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dump", dump.toMap());
+        stats.put("compress", compress.toMap());
+        stats.put("encrypt", encrypt.toMap());
+        Map<String, Object> uploadStats = upload.toMap();
+        uploadStats.put("parts", parts);
+        stats.put("upload", uploadStats);
+        stats.put("compression", codec.describe(level));
+        stats.put("compression_ratio", dump.bytes > 0 ? Math.round(compress.bytes * 1000.0 / dump.bytes) / 1000.0 : 0);
+        stats.put("duration_ms", Math.round((System.nanoTime() - start) / 1_000_000.0));
+        stats.put("buffer_bytes", 2L * bufferedChunks * CHUNK_SIZE);
+        return new Result(objectName, encrypt.bytes, dump.bytes, HexFormat.of().formatHex(sha256.digest()), stats);
+    }
+
+    /**
+     * An upload failure is usually the consequence of an earlier stage failing; report that cause instead.
+     */
+    private static void rethrowStageFailure(Future<?>... stages) throws Exception {
+        for (Future<?> stage : stages) {
+            try {
+                stage.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause && !(cause instanceof PipeFailedException)) {
+                    throw cause;
+                }
+            } catch (Exception ignored) {
+                // stage still running or interrupted; the upload failure is reported instead
+            }
+        }
+    }
+
+    private static class Stage {
+        volatile long bytes;
+        volatile long nanos;
+
+        void finish(long start) {
+            nanos = System.nanoTime() - start;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("bytes", bytes);
+            map.put("duration_ms", Math.round(nanos / 1_000_000.0));
+            map.put("mb_per_second", nanos > 0 ? Math.round(bytes / 1_048_576.0 / (nanos / 1e9) * 10) / 10.0 : 0);
+            return map;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final Stage stage;
+
+        CountingOutputStream(OutputStream out, Stage stage) {
+            super(out);
+            this.stage = stage;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            stage.bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            stage.bytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the pipe is closed explicitly once the stage succeeded
+            flush();
+        }
+    }
+
+    private static class PipeFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PipeFailedException(Throwable cause) {
+            super("Backup pipeline stage failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Bounded single-producer, single-consumer byte pipe made of {@code CHUNK_SIZE} chunks. Unlike
+     * {@link java.io.PipedInputStream} a failure on either side is propagated to the other.
+     */
+    static class Pipe {
+        private static final byte[] EOF = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks;
+        private volatile Throwable failure;
+
+        Pipe(int capacity) {
+            this.chunks = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void fail(Throwable cause) {
+            if (failure == null) {
+                failure = cause;
+            }
+            chunks.clear();
+        }
+
+        private void checkFailed() throws IOException {
+            if (failure != null) {
+                throw new PipeFailedException(failure);
+            }
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            try {
+                while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    checkFailed();
+                }
+                checkFailed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing to backup pipe", e);
+            }
+        }
+
+        OutputStream sink() {
+            return new OutputStream() {
+                private byte[] buffer = new byte[CHUNK_SIZE];
+                private int count = 0;
+                private boolean closed = false;
+
+                @Override
+                public void write(int b) throws IOException {
+                    if (count == buffer.length) {
+                        flushChunk();
+                    }
+                    buffer[count++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        if (count == buffer.length) {
+                            flushChunk();
+                        }
+                        int n = Math.min(len, buffer.length - count);
+                        System.arraycopy(b, off, buffer, count, n);
+                        count += n;
+                        off += n;
+                        len -= n;
+                    }
+                }
+
+                private void flushChunk() throws IOException {
+                    if (count > 0) {
+                        byte[] chunk = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+                        put(chunk);
+                        buffer = new byte[CHUNK_SIZE];
+                        count = 0;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        flushChunk();
+                        put(EOF);
+                    }
+                }
+            };
+        }
+
+        InputStream source() {
+            return new InputStream() {
+                private byte[] current;
+                private int pos = 0;
+                private boolean eof = false;
+
+                private boolean fill() throws IOException {
+                    while (!eof && (current == null || pos == current.length)) {
+                        checkFailed();
+                        try {
+                            byte[] chunk = chunks.poll(100, TimeUnit.MILLISECONDS);
+                            if (chunk == EOF) {
+                                eof = true;
+                            } else if (chunk != null) {
+                                current = chunk;
+                                pos = 0;
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while reading from backup pipe", e);
+                        }
+                    }
+                    return !eof;
+                }
+
+                @Override
+                public int read() throws IOException {
+                    return fill() ? current[pos++] & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (!fill()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, current.length - pos);
+                    System.arraycopy(current, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+
+                @Override
+                public void close() {
+                    if (!eof) {
+                        fail(new IOException("Backup pipe closed by reader"));
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import dev.nilswitt.rk.edpmonitoring.connectors.GPGConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.StorageInterface;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tools.jackson.databind.ObjectMapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicating backup format. The dump is split into content-defined chunks; each chunk is stored once,
+ * compressed and encrypted, under the HMAC-SHA256 of its plaintext keyed with the job's chunk secret:
+ * <pre>
+ * chunks/&lt;id&gt;/&lt;key id&gt;/&lt;first two hex digits&gt;/&lt;hmac&gt;&lt;codec extension&gt;.gpg
+ * </pre>
+ * Without the secret, chunk names can not be matched against guessed content. The key id is derived from
+ * the secret, so a new secret starts a new chunk set instead of mixing names from both.
+ * <p>
+ * A run only uploads chunks that are not stored yet, followed by an encrypted JSON manifest
+ * {@code backup_<id>_<time>.manifest.gpg} listing the key id and the chunk hashes in dump order. To restore,
+ * decrypt the manifest, then fetch, decrypt and decompress its chunks and concatenate them.
+ * <p>
+ * Chunks uploaded by a failed run are kept and reused by the next one; a run without a manifest is not a
+ * backup.
+ */
+public class ChunkedBackup implements BackupFormat {
+
+    private static final Logger LOGGER = LogManager.getLogger(ChunkedBackup.class);
+    private static final int MANIFEST_VERSION = 2;
+    private static final String HMAC = "HmacSHA256";
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final String id;
+    private final String dumpCommand;
+    private final String encryptionKeyPath;
+    private final int avgChunkSize;
+    private final int uploadParallelism;
+    private final CompressionCodec codec;
+    private final int level;
+    private final SecretKeySpec chunkKey;
+    private final String keyId;
+    private final Set<String> knownChunks = ConcurrentHashMap.newKeySet();
+    private boolean knownChunksLoaded = false;
+
+    public record ChunkRef(String hash, long length) {
+    }
+
+    public record Manifest(int version, String id, String created, String keyId, int avgChunkSize, String compression, long length, List<ChunkRef> chunks) {
+    }
+
+    public ChunkedBackup(String id, String dumpCommand, String encryptionKeyPath, String chunkSecret, int avgChunkKb, int uploadParallelism, CompressionCodec codec, int level) throws GeneralSecurityException {
+        this.id = id;
+        this.dumpCommand = dumpCommand;
+        this.encryptionKeyPath = encryptionKeyPath;
+        this.avgChunkSize = avgChunkKb * 1024;
+        this.uploadParallelism = Math.max(1, uploadParallelism);
+        this.codec = codec;
+        this.level = level;
+        this.chunkKey = new SecretKeySpec(chunkSecret.getBytes(StandardCharsets.UTF_8), HMAC);
+        this.keyId = HexFormat.of().formatHex(newMac().doFinal("chunk-key-id".getBytes(StandardCharsets.UTF_8)), 0, 8);
+    }
+
+    private Mac newMac() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC);
+        mac.init(chunkKey);
+        return mac;
+    }
+
+    private String chunkPrefix() {
+        return "chunks/" + id + "/" + keyId + "/";
+    }
+
+    private String chunkName(String hash) {
+        return chunkPrefix() + hash.substring(0, 2) + "/" + hash + codec.getExtension() + ".gpg";
+    }
+
+    @Override
+    public String getName() {
+        return "chunked";
+    }
+
+    @Override
+    public Result run(StorageInterface storage, String baseName) throws Exception {
+        if (!knownChunksLoaded) {
+            knownChunks.addAll(storage.getFiles(chunkPrefix()));
+            knownChunksLoaded = true;
+            LOGGER.info("Found {} stored chunks for backup {}", knownChunks.size(), id);
+        }
+
+        long start = System.nanoTime();
+        Mac mac = newMac();
+        List<ChunkRef> chunks = new ArrayList<>();
+        Set<String> scheduled = new HashSet<>();
+        List<Future<?>> uploads = new ArrayList<>();
+        Semaphore inFlight = new Semaphore(uploadParallelism);
+        AtomicLong uploadedBytes = new AtomicLong();
+        long dumpBytes = 0;
+        long newBytes = 0;
+
+        Process process = BackupPipeline.startDump(dumpCommand);
+        ExecutorService workers = Executors.newFixedThreadPool(uploadParallelism, r -> {
+            Thread t = new Thread(r, "backup-chunks-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try (InputStream in = process.getInputStream()) {
+            ContentDefinedChunker chunker = new ContentDefinedChunker(in, avgChunkSize);
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                String hash = HexFormat.of().formatHex(mac.doFinal(chunk));
+                chunks.add(new ChunkRef(hash, chunk.length));
+                dumpBytes += chunk.length;
+                String name = chunkName(hash);
+                if (knownChunks.contains(name) || !scheduled.add(name)) {
+                    continue;
+                }
+                newBytes += chunk.length;
+                byte[] plaintext = chunk;
+                inFlight.acquire();
+                uploads.add(workers.submit(() -> {
+                    try {
+                        byte[] encrypted = encrypt(plaintext, true);
+                        storage.putStream(name, new ByteArrayInputStream(encrypted));
+                        uploadedBytes.addAndGet(encrypted.length);
+                        knownChunks.add(name);
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }));
+                // fail fast instead of dumping the rest of the database
+                if (uploads.get(0).isDone()) {
+                    uploads.remove(0).get();
+                }
+            }
+            int exit = process.waitFor();
+            if (exit != 0) {
+                throw new IOException("Dump command exited with code " + exit);
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            workers.shutdownNow();
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+
+        Manifest manifest = new Manifest(MANIFEST_VERSION, id, Instant.now().toString(), keyId, avgChunkSize, codec.describe(level), dumpBytes, chunks);
+        byte[] encryptedManifest = encrypt(new ObjectMapper().writeValueAsBytes(manifest), false);
+        String manifestName = baseName + ".manifest.gpg";
+        storage.putStream(manifestName, new ByteArrayInputStream(encryptedManifest));
+
+        long nanos = System.nanoTime() - start;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("format", "chunked");
+        stats.put("compression", codec.describe(level));
+        stats.put("dump_bytes", dumpBytes);
+        stats.put("chunks", chunks.size());
+        stats.put("new_chunks", scheduled.size());
+        stats.put("new_bytes", newBytes);
+        stats.put("uploaded_bytes", uploadedBytes.get() + encryptedManifest.length);
+        stats.put("dedupe_ratio", dumpBytes > 0 ? Math.round((dumpBytes - newBytes) * 1000.0 / dumpBytes) / 1000.0 : 0);
+        stats.put("stored_chunks", knownChunks.size());
+        stats.put("duration_ms", Math.round(nanos / 1_000_000.0));
+        stats.put("mb_per_second", nanos > 0 ? Math.round(dumpBytes / 1_048_576.0 / (nanos / 1e9) * 10) / 10.0 : 0);
+        return new Result(manifestName, encryptedManifest.length, dumpBytes, HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(encryptedManifest)), stats);
+    }
+
+    private byte[] encrypt(byte[] plaintext, boolean compress) throws IOException {
+        byte[] data = plaintext;
+        if (compress) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(plaintext.length / 2);
+            try (OutputStream compressor = codec.compress(compressed, level)) {
+                compressor.write(plaintext);
+            }
+            data = compressed.toByteArray();
+        }
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(data.length + 1024);
+        GPGConnector.encrypt(encryptionKeyPath, new ByteArrayInputStream(data), encrypted);
+        return encrypted.toByteArray();
+    }
+}
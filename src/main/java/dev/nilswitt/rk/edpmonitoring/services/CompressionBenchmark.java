@@ -0,0 +1,91 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures compression ratio and throughput of every {@link CompressionCodec} at several levels, to choose
+ * {@code db.backup.<key>.compression} and {@code compression_level} for a site.
+ * <pre>
+ * java -cp windows-client.jar dev.nilswitt.rk.edpmonitoring.services.CompressionBenchmark [dump.sql] [size_mb]
+ * </pre>
+ * The input defaults to {@code data/sample.sql}. A file smaller than {@code size_mb} (default 64) is
+ * scaled up by repeating it with every digit randomised in each copy, so the copies look like further rows
+ * rather than exact repeats a compressor could reference for free. Pass a real dump for the most reliable
+ * numbers.
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Path input = Path.of(args.length > 0 ? args[0] : "data/sample.sql");
+        int sizeMb = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        byte[] data = load(input, sizeMb * 1024 * 1024);
+        System.out.printf(Locale.ROOT, "Input: %s, %.1f MB%n%n", input, data.length / 1_048_576.0);
+        System.out.printf(Locale.ROOT, "%-10s %12s %8s %10s%n", "codec", "bytes", "ratio", "MB/s");
+
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            int[] levels = codec == CompressionCodec.NONE
+                    ? new int[]{0}
+                    : new int[]{codec.getMinLevel(), codec.level(-1), codec.getMaxLevel()};
+            for (int level : Arrays.stream(levels).distinct().toArray()) {
+                // warm up the JIT on a slice before timing the full input
+                compress(codec, level, Arrays.copyOf(data, Math.min(data.length, 4 * 1024 * 1024)));
+                long start = System.nanoTime();
+                long compressed = compress(codec, level, data);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf(Locale.ROOT, "%-10s %12d %7.2fx %10.1f%n", codec.describe(level), compressed,
+                        (double) data.length / Math.max(1, compressed), data.length / 1_048_576.0 / seconds);
+            }
+        }
+    }
+
+    private static byte[] load(Path input, int size) throws IOException {
+        byte[] sample = Files.readAllBytes(input);
+        if (sample.length == 0 || sample.length >= size) {
+            return sample.length > size ? Arrays.copyOf(sample, size) : sample;
+        }
+        byte[] data = new byte[size];
+        Random random = new Random(42);
+        for (int offset = 0; offset < size; offset += sample.length) {
+            int length = Math.min(sample.length, size - offset);
+            System.arraycopy(sample, 0, data, offset, length);
+            if (offset > 0) {
+                for (int i = offset; i < offset + length; i++) {
+                    if (data[i] >= '0' && data[i] <= '9') {
+                        data[i] = (byte) ('0' + random.nextInt(10));
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    private static long compress(CompressionCodec codec, int level, byte[] data) throws IOException {
+        CountingSink sink = new CountingSink();
+        try (OutputStream out = codec.compress(sink, level)) {
+            for (int offset = 0; offset < data.length; offset += 64 * 1024) {
+                out.write(data, offset, Math.min(64 * 1024, data.length - offset));
+            }
+        }
+        return sink.count;
+    }
+
+    private static class CountingSink extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
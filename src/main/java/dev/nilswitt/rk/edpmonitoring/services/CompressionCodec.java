@@ -0,0 +1,94 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression codecs for backups. Levels run from {@link #getMinLevel()} (fastest) to
+ * {@link #getMaxLevel()} (smallest); -1 selects the codec's default. For bzip2 the level is the block size
+ * in 100k units.
+ */
+public enum CompressionCodec {
+    NONE("", 0, 0, 0),
+    GZIP(".gz", 1, 9, 6),
+    BZIP2(".bz2", 1, 9, 9);
+
+    private final String extension;
+    private final int minLevel;
+    private final int maxLevel;
+    private final int defaultLevel;
+
+    CompressionCodec(String extension, int minLevel, int maxLevel, int defaultLevel) {
+        this.extension = extension;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.defaultLevel = defaultLevel;
+    }
+
+    public static CompressionCodec fromConfig(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown compression codec '" + name + "', expected one of none, gzip, bzip2");
+        }
+    }
+
+    /**
+     * File name extension of compressed data, empty for {@link #NONE}.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public int level(int level) {
+        return level < 0 ? defaultLevel : Math.min(maxLevel, Math.max(minLevel, level));
+    }
+
+    /**
+     * Wrap {@code out} in a compressing stream. Closing the returned stream finishes the compressed data but
+     * leaves {@code out} open.
+     */
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        OutputStream target = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        int effective = level(level);
+        return switch (this) {
+            case NONE -> target;
+            case GZIP -> new GZIPOutputStream(target, 64 * 1024) {
+                {
+                    def.setLevel(effective);
+                }
+            };
+            case BZIP2 -> new BZip2CompressorOutputStream(target, effective);
+        };
+    }
+
+    /**
+     * Name and level as shown in status and manifests, e.g. {@code gzip-6}.
+     */
+    public String describe(int level) {
+        return this == NONE ? "none" : name().toLowerCase(Locale.ROOT) + "-" + level(level);
+    }
+}
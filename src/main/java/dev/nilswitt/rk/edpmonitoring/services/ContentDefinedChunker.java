@@ -0,0 +1,78 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into content-defined chunks with a gear rolling hash (as in FastCDC).
+ * <p>
+ * A chunk ends where the low bits of the hash over the last 64 bytes are all zero, so boundaries depend
+ * on the content rather than on offsets: an insert or delete early in a dump only changes the chunks
+ * around it, and the remaining chunks hash the same as in the previous backup. Chunks are at least
+ * {@code minSize} and at most {@code maxSize} bytes, {@code avgSize} on average.
+ */
+public class ContentDefinedChunker {
+
+    private static final long[] GEAR = gearTable();
+
+    private final InputStream in;
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+    private final byte[] buffer;
+    private int length = 0;
+
+    public ContentDefinedChunker(InputStream in, int avgSize) {
+        this.in = in;
+        int avg = Integer.highestOneBit(Math.max(4096, avgSize));
+        this.minSize = avg / 4;
+        this.maxSize = avg * 4;
+        // the high bits of the gear hash depend on all of the last 64 bytes, the low bits only on the last few
+        this.mask = (long) (avg - 1) << (64 - Integer.numberOfTrailingZeros(avg));
+        this.buffer = new byte[maxSize];
+    }
+
+    /**
+     * The next chunk, or null at the end of the stream.
+     */
+    public byte[] next() throws IOException {
+        length += in.readNBytes(buffer, length, maxSize - length);
+        if (length == 0) {
+            return null;
+        }
+        int cut = length;
+        long hash = 0;
+        for (int i = minSize; i < length; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & mask) == 0) {
+                cut = i + 1;
+                break;
+            }
+        }
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, length - cut);
+        length -= cut;
+        return chunk;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Fixed pseudo-random table (splitmix64). It must never change, or chunk boundaries and therefore
+     * deduplication against existing backups are lost.
+     */
+    private static long[] gearTable() {
+        long[] table = new long[256];
+        long state = 0x45445042414b5550L;
+        for (int i = 0; i < table.length; i++) {
+            long z = (state += 0x9e3779b97f4a7c15L);
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+}
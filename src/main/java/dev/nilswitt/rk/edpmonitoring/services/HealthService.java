@@ -6,11 +6,14 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import dev.nilswitt.rk.edpmonitoring.connectors.ConfigConnector;
+import dev.nilswitt.rk.edpmonitoring.threads.OutBoxWatcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class HealthService {
@@ -44,6 +47,23 @@ public class HealthService {
             map.put("version", "1.0.0");
             map.put("status", "OK");
             map.put("backup", BackUpService.getStatusMap());
+            map.put("outbox", OutBoxWatcher.getStatusMap());
+            map.put("retention", OutboxRetentionService.getStatusMap());
+            if (OutBoxWatcher.getChangeCaptureStatus() != null) {
+                map.put("binlog", OutBoxWatcher.getChangeCaptureStatus());
+            }
+            if (configConnector.getApiConnector() != null) {
+                map.put("api_http", configConnector.getApiConnector().getHttpStats());
+                map.put("api_auth", configConnector.getApiConnector().getAuthStatus());
+                map.put("api_guard", configConnector.getApiConnector().getGuardStatus());
+                if (!configConnector.getApiConnector().isAvailable()) {
+                    map.put("status", "DEGRADED");
+                }
+            }
+            if (configConnector.getMariaDBConnector() != null) {
+                map.put("database", configConnector.getMariaDBConnector().getPoolStats());
+                map.put("dead_letters", configConnector.getMariaDBConnector().countDeadLetters());
+            }
 
             ObjectMapper mapper = new ObjectMapper();
             String jsonResult = mapper.writerWithDefaultPrettyPrinter()
@@ -51,12 +71,21 @@ public class HealthService {
             return jsonResult;
         }
 
+        private String getDeadLetters() throws JsonProcessingException {
+            Object deadLetters = configConnector.getMariaDBConnector() != null
+                    ? configConnector.getMariaDBConnector().getDeadLetters(100)
+                    : List.of();
+            return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(deadLetters);
+        }
+
         @Override
         public void handle(HttpExchange exchange) {
             try {
-                String response = getStatus();
-                exchange.sendResponseHeaders(200, response.length());
-                exchange.getResponseBody().write(response.getBytes());
+                String response = exchange.getRequestURI().getPath().startsWith("/dead-letters") ? getDeadLetters() : getStatus();
+                byte[] body = response.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
                 exchange.close();
             } catch (Exception e) {
                 log.error("Error handling health check request: {}", e.getMessage(), e);
@@ -0,0 +1,88 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import dev.nilswitt.rk.edpmonitoring.connectors.ConfigConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.MariaDBConnector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps delivered outbox rows for a retention window and then deletes them in small chunks on a
+ * low-priority thread, pausing between chunks so deletes never hold locks the outbox trigger needs.
+ */
+public class OutboxRetentionService {
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "outbox-retention");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private static final Logger LOGGER = LogManager.getLogger(OutboxRetentionService.class);
+    private static final Map<String, Object> statusMap = new ConcurrentHashMap<>();
+    private static long purgedTotal = 0;
+
+    public static Map<String, Object> getStatusMap() {
+        return statusMap;
+    }
+
+    public static void start(MariaDBConnector mariaDBConnector) {
+        ConfigConnector configConnector = ConfigConnector.getInstance();
+        long retentionSeconds = Long.parseLong(configConnector.getConfigValue("db.outbox.retention_hours", "DB_OUTBOX_RETENTION_HOURS", "24")) * 3600;
+        int interval = Integer.parseInt(configConnector.getConfigValue("db.outbox.purge_interval_seconds", "DB_OUTBOX_PURGE_INTERVAL_SECONDS", "300"));
+        int chunkSize = Integer.parseInt(configConnector.getConfigValue("db.outbox.purge_batch_size", "DB_OUTBOX_PURGE_BATCH_SIZE", "1000"));
+        long pauseMillis = Long.parseLong(configConnector.getConfigValue("db.outbox.purge_pause_ms", "DB_OUTBOX_PURGE_PAUSE_MS", "100"));
+        int maxChunks = Integer.parseInt(configConnector.getConfigValue("db.outbox.purge_max_chunks", "DB_OUTBOX_PURGE_MAX_CHUNKS", "100"));
+        if (interval <= 0) {
+            LOGGER.info("Outbox purge is disabled.");
+            return;
+        }
+        LOGGER.info("Starting outbox retention: keep SENT rows {} h, purge every {} s in chunks of {}", retentionSeconds / 3600, interval, chunkSize);
+        executor.scheduleWithFixedDelay(() -> purge(mariaDBConnector, retentionSeconds, chunkSize, pauseMillis, maxChunks), interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(executor::shutdownNow));
+    }
+
+    private static void purge(MariaDBConnector mariaDBConnector, long retentionSeconds, int chunkSize, long pauseMillis, int maxChunks) {
+        try {
+            long start = System.nanoTime();
+            long deleteNanos = 0;
+            int purged = 0;
+            int chunks = 0;
+            int deleted;
+            do {
+                long deleteStart = System.nanoTime();
+                deleted = mariaDBConnector.purgeSentOutboxChunk(retentionSeconds, chunkSize);
+                deleteNanos += System.nanoTime() - deleteStart;
+                if (deleted > 0) {
+                    purged += deleted;
+                }
+                chunks++;
+                if (deleted == chunkSize && pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            } while (deleted == chunkSize && chunks < maxChunks);
+
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            double deleteSeconds = deleteNanos / 1_000_000_000.0;
+            purgedTotal += purged;
+            statusMap.put("purged_last_run", purged);
+            statusMap.put("purged_total", purgedTotal);
+            // DELETE time only, so the configured pauses do not lower the rate
+            statusMap.put("purge_rows_per_second", deleteSeconds > 0 ? Math.round(purged / deleteSeconds * 10) / 10.0 : 0);
+            statusMap.put("purge_duration_ms", Math.round(seconds * 1000));
+            statusMap.put("table", mariaDBConnector.getOutboxTableStats());
+            if (purged > 0) {
+                LOGGER.info("Purged {} sent outbox row(s) in {} chunk(s), {} ms ({} ms deleting)", purged, chunks,
+                        Math.round(seconds * 1000), Math.round(deleteSeconds * 1000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Outbox purge failed: {}", e.getMessage(), e);
+        }
+    }
+}
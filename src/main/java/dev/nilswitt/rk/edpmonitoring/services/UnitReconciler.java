@@ -0,0 +1,128 @@
+package dev.nilswitt.rk.edpmonitoring.services;
+
+import dev.nilswitt.rk.edpmonitoring.connectors.ApiConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.ConfigConnector;
+import dev.nilswitt.rk.edpmonitoring.enitites.Unit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reconciles database units against API units by name. Both sides are indexed once, the difference is
+ * split into units to create, units whose status or position changed and unchanged units, and only the
+ * first two groups are pushed to the API, with at most {@code concurrency} requests in flight.
+ */
+public class UnitReconciler {
+
+    private static final Logger LOGGER = LogManager.getLogger(UnitReconciler.class);
+
+    private final ApiConnector apiConnector;
+    private final ConfigConnector configConnector;
+    private final int concurrency;
+
+    public record Result(int created, int updated, int unchanged, int failed, long durationMillis) {
+    }
+
+    public UnitReconciler(ApiConnector apiConnector, ConfigConnector configConnector, int concurrency) {
+        this.apiConnector = apiConnector;
+        this.configConnector = configConnector;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * @param createMissing create database units that are missing from {@code apiUnits}; pass false when
+     *                      the API units come from a cache, where a missing unit may just not be known yet
+     */
+    public Result reconcile(Collection<Unit> dbUnits, Collection<Unit> apiUnits, boolean createMissing) {
+        long start = System.nanoTime();
+        Map<String, Unit> apiByName = new HashMap<>(apiUnits.size() * 2);
+        for (Unit apiUnit : apiUnits) {
+            apiByName.put(apiUnit.getName(), apiUnit);
+        }
+
+        List<Unit> toCreate = new ArrayList<>();
+        List<Unit> toUpdate = new ArrayList<>();
+        int unchanged = 0;
+        for (Unit dbUnit : dbUnits) {
+            Unit apiUnit = apiByName.get(dbUnit.getName());
+            if (apiUnit == null) {
+                if (createMissing) {
+                    toCreate.add(dbUnit);
+                }
+            } else if (apiUnit.getStatus() != dbUnit.getStatus() || !Objects.equals(apiUnit.getPosition(), dbUnit.getPosition())) {
+                apiUnit.setStatus(dbUnit.getStatus());
+                apiUnit.setPosition(dbUnit.getPosition());
+                toUpdate.add(apiUnit);
+            } else {
+                unchanged++;
+            }
+        }
+        LOGGER.info("Reconciliation diff: {} to create, {} changed, {} unchanged", toCreate.size(), toUpdate.size(), unchanged);
+        if (!createMissing) {
+            LOGGER.warn("API unit catalogue is cached, not creating units missing from it");
+        }
+
+        int failed = 0;
+        int created = 0;
+        int updated = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<Unit>> creates = new ArrayList<>(toCreate.size());
+            for (Unit unit : toCreate) {
+                creates.add(pool.submit(() -> apiConnector.createUnit(unit)));
+            }
+            List<Future<Unit>> updates = new ArrayList<>(toUpdate.size());
+            for (Unit unit : toUpdate) {
+                updates.add(pool.submit(() -> apiConnector.pushUnit(unit)));
+            }
+
+            // mappings are plain HashMaps, so they are only touched from this thread
+            for (Future<Unit> future : creates) {
+                Unit unit = await(future);
+                if (unit == null) {
+                    failed++;
+                } else {
+                    configConnector.getUnitMappings().put(unit.getName(), unit.getId());
+                    configConnector.getUnits().put(unit.getId(), unit);
+                    created++;
+                }
+            }
+            for (Future<Unit> future : updates) {
+                if (await(future) == null) {
+                    failed++;
+                } else {
+                    updated++;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Result result = new Result(created, updated, unchanged, failed, Math.round((System.nanoTime() - start) / 1_000_000.0));
+        LOGGER.info("Reconciliation finished in {} ms: {} created, {} updated, {} unchanged, {} failed",
+                result.durationMillis(), result.created(), result.updated(), result.unchanged(), result.failed());
+        return result;
+    }
+
+    private static Unit await(Future<Unit> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LOGGER.error("Reconciliation request failed: {}", e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -1,32 +1,375 @@
 package dev.nilswitt.rk.edpmonitoring.threads;
 
 import dev.nilswitt.rk.edpmonitoring.connectors.ApiConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.BinlogConnector;
 import dev.nilswitt.rk.edpmonitoring.connectors.MariaDBConnector;
+import dev.nilswitt.rk.edpmonitoring.connectors.OutboxSpool;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OutBoxWatcher implements Runnable {
 
     private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    // separate thread, the executor is busy with the batch whose lease is renewed
+    private static final ScheduledExecutorService leaseRenewer = Executors.newScheduledThreadPool(1);
     private static final Logger LOGGER = LogManager.getLogger(OutBoxWatcher.class);
+    private static final Map<String, Object> statusMap = new ConcurrentHashMap<>();
+    private static final AtomicLong ackedTotal = new AtomicLong();
+    private static final AtomicLong failedTotal = new AtomicLong();
+    private static final AtomicLong skippedCycles = new AtomicLong();
+    private static final AtomicLong rejectedTotal = new AtomicLong();
+    private static final AtomicLong callsSavedTotal = new AtomicLong();
+    private static final AtomicLong spooledTotal = new AtomicLong();
+    private static final AtomicLong spoolReplayedTotal = new AtomicLong();
     private static MariaDBConnector mariaDBConnector;
     private static ApiConnector apiConnector;
+    private static boolean coalesce = false;
+    private static PartitionedDispatcher dispatcher;
+    private static BinlogConnector binlogConnector;
+    private static volatile OutboxSpool spool;
+    private static volatile int spoolMaxAttempts = 5;
+    private static int safetyPollSeconds = 30;
+    private static volatile long lastRun = 0;
+    private static final AtomicBoolean triggered = new AtomicBoolean(false);
+
+    public static Map<String, Object> getStatusMap() {
+        return statusMap;
+    }
+
+    /**
+     * Scheduled poll. While binlog change capture is connected, polling only runs every
+     * {@code safetyPollSeconds} as a safety net; otherwise it runs on every tick.
+     */
+    private static void poll() {
+        if (binlogConnector != null && binlogConnector.isConnected()
+                && System.currentTimeMillis() - lastRun < TimeUnit.SECONDS.toMillis(safetyPollSeconds)) {
+            return;
+        }
+        new OutBoxWatcher().run();
+    }
+
+    /**
+     * Request an immediate outbox run. Repeated triggers before the run starts collapse into one.
+     */
+    public static void trigger() {
+        if (triggered.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                triggered.set(false);
+                new OutBoxWatcher().run();
+            });
+        }
+    }
+
+    /**
+     * Use binlog change capture to push outbox runs instead of waiting for the next poll.
+     */
+    public static void enableChangeCapture(BinlogConnector binlogConnector, int safetyPollSeconds) {
+        OutBoxWatcher.binlogConnector = binlogConnector;
+        OutBoxWatcher.safetyPollSeconds = safetyPollSeconds;
+        binlogConnector.start(OutBoxWatcher::trigger);
+    }
+
+    public static Map<String, Object> getChangeCaptureStatus() {
+        return binlogConnector != null ? binlogConnector.getStatus() : null;
+    }
 
     @Override
     public void run() {
-        ArrayList<MariaDBConnector.WorkerOutbox> rows = mariaDBConnector.getWorkerOutbox();
+        lastRun = System.currentTimeMillis();
+        try {
+            if (spool == null && !apiConnector.isAvailable()) {
+                // leave rows pending instead of spending their retry attempts on calls that would be rejected
+                LOGGER.debug("API circuit is open, skipping outbox cycle");
+                statusMap.put("skipped_cycles", skippedCycles.incrementAndGet());
+                return;
+            }
+            int batchSize = mariaDBConnector.getOutboxBatchSize();
+            // at most one page of due retries per cycle, so failing rows never starve fresh traffic
+            ArrayList<MariaDBConnector.WorkerOutbox> retries = mariaDBConnector.claimDueRetries(spool == null && apiConnector.isProbing() ? 1 : batchSize);
+            if (!retries.isEmpty()) {
+                LOGGER.info("Retrying {} outbox row(s)", retries.size());
+                processBatch(retries);
+            }
+            int lastId = 0;
+            int pageSize;
+            ArrayList<MariaDBConnector.WorkerOutbox> rows;
+            do {
+                // while the circuit only lets a trial call through, claim a single row to probe with
+                pageSize = spool == null && apiConnector.isProbing() ? 1 : batchSize;
+                rows = mariaDBConnector.claimWorkerOutbox(lastId, pageSize);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                processBatch(rows);
+                lastId = rows.getLast().id;
+            } while (rows.size() == pageSize && (spool != null || apiConnector.isAvailable()));
+            if (spool != null) {
+                replaySpool();
+            }
+        } catch (Exception e) {
+            // an exception escaping run() would cancel the scheduled task for good
+            LOGGER.error("OutBoxWatcher cycle failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void processBatch(List<MariaDBConnector.WorkerOutbox> rows) {
+        List<Integer> ids = rows.stream().map(row -> row.id).toList();
+        long period = Math.max(1, mariaDBConnector.getLeaseSeconds() / 3);
+        ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> renewLease(ids), period, period, TimeUnit.SECONDS);
+        try {
+            deliverBatch(rows);
+        } finally {
+            renewal.cancel(false);
+        }
+    }
+
+    /**
+     * Keep the lease of a batch that is still being sent; losing it would let another instance claim and
+     * send the rows a second time.
+     */
+    private static void renewLease(List<Integer> ids) {
+        try {
+            int renewed = mariaDBConnector.renewOutboxLease(ids);
+            if (renewed < ids.size()) {
+                LOGGER.warn("Renewed the lease of {} of {} outbox row(s) still being sent", renewed, ids.size());
+            }
+        } catch (Exception e) {
+            LOGGER.error("Outbox lease renewal failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void deliverBatch(List<MariaDBConnector.WorkerOutbox> rows) {
+        long start = System.nanoTime();
+        if (spool != null && spoolBatch(rows, start)) {
+            return;
+        }
+        List<Integer> sent = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        List<MariaDBConnector.WorkerOutbox> rejected = new ArrayList<>();
+        List<List<MariaDBConnector.WorkerOutbox>> groups = coalesce ? new ArrayList<>(coalesce(rows)) : rows.stream().map(List::of).toList();
+        List<ApiConnector.Delivery> results = send(groups);
+        Map<String, Integer> latestSentByPk = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            for (MariaDBConnector.WorkerOutbox row : groups.get(i)) {
+                switch (results.get(i)) {
+                    case SENT -> {
+                        sent.add(row.id);
+                        latestSentByPk.merge(row.pk, row.id, Math::max);
+                    }
+                    case FAILED -> failed.add(row.id);
+                    case REJECTED -> rejected.add(row);
+                }
+            }
+        }
+        // rejected calls were never made, so they go back to NEW without spending an attempt; a rejected row
+        // that is older than a delivered row of its unit is done, sending it later would overwrite newer data
+        List<Integer> released = new ArrayList<>();
+        for (MariaDBConnector.WorkerOutbox row : rejected) {
+            if (row.id < latestSentByPk.getOrDefault(row.pk, 0)) {
+                sent.add(row.id);
+            } else {
+                released.add(row.id);
+            }
+        }
+        if (coalesce) {
+            recordCoalescing(rows.size(), groups.size());
+        }
+        int acked = mariaDBConnector.markOutboxSent(sent);
+        acked += mariaDBConnector.markOutboxFailed(failed, "API update failed");
+        if (!released.isEmpty()) {
+            int count = mariaDBConnector.releaseOutboxRows(released);
+            statusMap.put("rejected_total", rejectedTotal.addAndGet(count));
+            LOGGER.info("Returned {} outbox row(s) rejected by the API guard to NEW", count);
+        }
+        recordCycle(acked, sent.size(), failed.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Group rows by unit pk, keeping first-seen order of units and id order within a unit. Only the last
+     * row of each group is pushed to the API (latest wins); every row in the group is acknowledged with it.
+     */
+    static Collection<List<MariaDBConnector.WorkerOutbox>> coalesce(List<MariaDBConnector.WorkerOutbox> rows) {
+        Map<String, List<MariaDBConnector.WorkerOutbox>> byPk = new LinkedHashMap<>();
         for (MariaDBConnector.WorkerOutbox row : rows) {
-            apiConnector.processOutboxRow(row);
-            mariaDBConnector.removeFromOutbox(row.id);
+            byPk.computeIfAbsent(row.pk, k -> new ArrayList<>()).add(row);
+        }
+        return byPk.values();
+    }
+
+    /**
+     * Push the latest row of every group and report per group whether the API accepted it.
+     */
+    private List<ApiConnector.Delivery> send(List<List<MariaDBConnector.WorkerOutbox>> groups) {
+        List<CompletableFuture<ApiConnector.Delivery>> results = new ArrayList<>(groups.size());
+        if (apiConnector.isAsyncEnabled()) {
+            // non-blocking calls; a unit's next update is chained on its previous one to keep per-unit order
+            Map<String, CompletableFuture<ApiConnector.Delivery>> tails = new HashMap<>();
+            for (List<MariaDBConnector.WorkerOutbox> group : groups) {
+                MariaDBConnector.WorkerOutbox latest = group.getLast();
+                CompletableFuture<ApiConnector.Delivery> previous = tails.get(latest.pk);
+                CompletableFuture<ApiConnector.Delivery> result = previous == null
+                        ? apiConnector.processOutboxRowAsync(latest)
+                        : previous.thenCompose(ignored -> apiConnector.processOutboxRowAsync(latest));
+                tails.put(latest.pk, result);
+                results.add(result);
+            }
+        } else if (dispatcher == null) {
+            for (List<MariaDBConnector.WorkerOutbox> group : groups) {
+                results.add(CompletableFuture.completedFuture(apiConnector.processOutboxRow(group.getLast())));
+            }
+        } else {
+            // rows of one unit share a partition and keep their order; different units are pushed concurrently
+            for (List<MariaDBConnector.WorkerOutbox> group : groups) {
+                MariaDBConnector.WorkerOutbox latest = group.getLast();
+                results.add(dispatcher.submit(latest.pk, () -> apiConnector.processOutboxRow(latest)));
+            }
+        }
+        List<ApiConnector.Delivery> deliveries = new ArrayList<>(results.size());
+        for (CompletableFuture<ApiConnector.Delivery> result : results) {
+            deliveries.add(result.exceptionally(e -> ApiConnector.Delivery.FAILED).join());
+        }
+        return deliveries;
+    }
+
+    /**
+     * Write the rows to the local spool and mark them SPOOLED in the database right away.
+     *
+     * @return false if the spool could not be written and the rows must be delivered directly
+     */
+    private boolean spoolBatch(List<MariaDBConnector.WorkerOutbox> rows, long start) {
+        try {
+            spool.append(rows);
+        } catch (Exception e) {
+            LOGGER.error("Failed to spool {} outbox row(s), delivering directly: {}", rows.size(), e.getMessage(), e);
+            return false;
+        }
+        List<Integer> ids = rows.stream().map(row -> row.id).toList();
+        int acked = mariaDBConnector.markOutboxSpooled(ids);
+        statusMap.put("spooled_total", spooledTotal.addAndGet(rows.size()));
+        recordCycle(acked, rows.size(), 0, System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Replay spooled rows to the API while it is available. Rows the API rejects go back to the end of the
+     * spool; after {@code spoolMaxAttempts} they are dead-lettered in the database. Attempts are not counted
+     * for rows whose call the rate limiter or circuit breaker rejected.
+     */
+    private void replaySpool() {
+        int batchSize = mariaDBConnector.getOutboxBatchSize();
+        OutboxSpool.Batch batch;
+        while (apiConnector.isAvailable() && !(batch = spool.read(batchSize)).isEmpty()) {
+            long start = System.nanoTime();
+            List<OutboxSpool.Entry> entries = batch.entries();
+            List<ApiConnector.Delivery> results = send(entries.stream().map(entry -> List.of(entry.row())).toList());
+            List<OutboxSpool.Entry> retry = new ArrayList<>();
+            List<Integer> dead = new ArrayList<>();
+            List<Integer> sent = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                OutboxSpool.Entry entry = entries.get(i);
+                if (results.get(i) == ApiConnector.Delivery.SENT) {
+                    sent.add(entry.row().id);
+                } else if (results.get(i) == ApiConnector.Delivery.REJECTED) {
+                    retry.add(entry);
+                } else if (results.get(i) == ApiConnector.Delivery.FAILED) {
+                    if (entry.attempts() + 1 >= spoolMaxAttempts) {
+                        dead.add(entry.row().id);
+                    } else {
+                        retry.add(new OutboxSpool.Entry(entry.row(), entry.attempts() + 1));
+                    }
+                }
+            }
+            try {
+                spool.requeue(retry);
+            } catch (Exception e) {
+                // leave the cursor where it is, the whole batch is replayed again
+                LOGGER.error("Failed to requeue {} spooled row(s): {}", retry.size(), e.getMessage(), e);
+                return;
+            }
+            if (!dead.isEmpty()) {
+                LOGGER.warn("Dead-lettering {} spooled outbox row(s) after {} attempt(s)", dead.size(), spoolMaxAttempts);
+                mariaDBConnector.finishSpooledOutbox(dead, "FAILED", "API update failed (spool)");
+            }
+            mariaDBConnector.finishSpooledOutbox(sent, "SENT", null);
+            mariaDBConnector.finishSpooledOutbox(batch.superseded(), "SUPERSEDED", null);
+            spool.commit(batch);
+            int delivered = entries.size() - retry.size() - dead.size();
+            statusMap.put("spool_replayed_total", spoolReplayedTotal.addAndGet(delivered));
+            statusMap.put("spool", spool.getStatus());
+            LOGGER.debug("Replayed {} spooled row(s) in {} ms, {} requeued, {} dead-lettered", delivered,
+                    Math.round((System.nanoTime() - start) / 1_000_000.0), retry.size(), dead.size());
+            if (!retry.isEmpty() || !dead.isEmpty()) {
+                // requeued rows wait for the next cycle instead of being retried immediately
+                return;
+            }
+        }
+    }
+
+    private static void recordCoalescing(int rowCount, int callCount) {
+        int saved = rowCount - callCount;
+        statusMap.put("coalesced_rows_last_cycle", rowCount);
+        statusMap.put("http_calls_last_cycle", callCount);
+        statusMap.put("http_calls_saved_last_cycle", saved);
+        statusMap.put("http_calls_saved_total", callsSavedTotal.addAndGet(saved));
+        if (saved > 0) {
+            LOGGER.info("Coalesced {} outbox row(s) into {} API update(s), saved {} call(s)", rowCount, callCount, saved);
+        }
+    }
+
+    private static void recordCycle(int acked, int sent, int failed, long elapsedNanos) {
+        ackedTotal.addAndGet(acked);
+        failedTotal.addAndGet(failed);
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        double rate = seconds > 0 ? acked / seconds : 0;
+        statusMap.put("acked_total", ackedTotal.get());
+        statusMap.put("failed_total", failedTotal.get());
+        statusMap.put("last_batch_size", sent + failed);
+        statusMap.put("last_ack_rate_per_second", Math.round(rate * 10) / 10.0);
+        if (dispatcher != null) {
+            statusMap.put("dispatch_queued_tasks", dispatcher.getQueuedTasks());
+        }
+        LOGGER.info("Acknowledged {} outbox row(s) ({} sent, {} failed) in {} ms ({} rows/s)",
+                acked, sent, failed, Math.round(elapsedNanos / 1_000_000.0), Math.round(rate));
+    }
+
+    private static void recoverLeases() {
+        try {
+            int recovered = mariaDBConnector.recoverExpiredLeases();
+            if (recovered > 0) {
+                LOGGER.warn("Recovered {} outbox row(s) with an expired lease", recovered);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Outbox lease recovery failed: {}", e.getMessage(), e);
         }
     }
 
     public static void start(MariaDBConnector mariaDBConnector, ApiConnector apiConnector) {
+        start(mariaDBConnector, apiConnector, false, 1, 1000, null, 0);
+    }
+
+    /**
+     * @param spool           if not null, claimed rows are acknowledged into this local spool instead of being
+     *                        held in the database until the API has accepted them; the spool is replayed at
+     *                        the end of every cycle
+     * @param spoolMaxAttempts replays of a spooled row before it is dead-lettered
+     */
+    public static void start(MariaDBConnector mariaDBConnector, ApiConnector apiConnector, boolean coalesce, int parallelism, int partitionQueueSize,
+                             OutboxSpool spool, int spoolMaxAttempts) {
         if (mariaDBConnector == null) {
             throw new IllegalArgumentException("MariaDBConnector cannot be null");
         }
@@ -35,9 +378,28 @@ public class OutBoxWatcher implements Runnable {
         }
         OutBoxWatcher.mariaDBConnector = mariaDBConnector;
         OutBoxWatcher.apiConnector = apiConnector;
-        executor.scheduleAtFixedRate(new OutBoxWatcher(), 0, 3, TimeUnit.SECONDS);
+        OutBoxWatcher.coalesce = coalesce;
+        if (spool != null) {
+            OutBoxWatcher.spoolMaxAttempts = spoolMaxAttempts;
+            OutBoxWatcher.spool = spool;
+            Runtime.getRuntime().addShutdownHook(new Thread(spool::close));
+        }
+        if (parallelism > 1) {
+            OutBoxWatcher.dispatcher = new PartitionedDispatcher("outbox-dispatch", parallelism, partitionQueueSize);
+            statusMap.put("dispatch_parallelism", dispatcher.getParallelism());
+        }
+        int reset = mariaDBConnector.resetSendingOutbox();
+        if (reset > 0) {
+            LOGGER.info("Returned {} outbox row(s) left in SENDING to NEW", reset);
+        }
+        executor.scheduleAtFixedRate(OutBoxWatcher::poll, 0, 3, TimeUnit.SECONDS);
+        executor.scheduleWithFixedDelay(OutBoxWatcher::recoverLeases, 30, 30, TimeUnit.SECONDS);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             executor.shutdown();
+            leaseRenewer.shutdown();
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
             try {
                 if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
                     executor.shutdownNow();
@@ -51,5 +413,9 @@ public class OutBoxWatcher implements Runnable {
 
     public static void stop() {
         executor.shutdown();
+        leaseRenewer.shutdown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
     }
 }
@@ -0,0 +1,71 @@
+package dev.nilswitt.rk.edpmonitoring.threads;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on a fixed set of single-threaded partitions chosen by key. Tasks with the same key always land
+ * on the same partition and therefore run in submission order; tasks with different keys may run
+ * concurrently. Each partition has a bounded queue; when it is full, {@link #submit} blocks the caller.
+ */
+public class PartitionedDispatcher {
+
+    private static final Logger LOGGER = LogManager.getLogger(PartitionedDispatcher.class);
+
+    private final ThreadPoolExecutor[] partitions;
+
+    public PartitionedDispatcher(String name, int parallelism, int queueSize) {
+        this.partitions = new ThreadPoolExecutor[Math.max(1, parallelism)];
+        for (int i = 0; i < partitions.length; i++) {
+            String threadName = name + "-" + i;
+            partitions[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                    r -> {
+                        Thread t = new Thread(r, threadName);
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    (r, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Dispatcher partition " + threadName + " is shut down");
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for queue space", e);
+                        }
+                    });
+        }
+        LOGGER.info("Started dispatcher '{}' with {} partition(s), queue size {}", name, partitions.length, queueSize);
+    }
+
+    public int getParallelism() {
+        return partitions.length;
+    }
+
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, partitions[Math.floorMod(key.hashCode(), partitions.length)]);
+    }
+
+    public int getQueuedTasks() {
+        int queued = 0;
+        for (ThreadPoolExecutor partition : partitions) {
+            queued += partition.getQueue().size();
+        }
+        return queued;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor partition : partitions) {
+            partition.shutdown();
+        }
+    }
+}